@@ -58,10 +58,10 @@ public abstract class Processor extends Device {
   }
 
   public final void cycle(int count) {
-  	  // Perform cycles
-	  for (; count > 0; count--) {
-		  cycles++;
-		  cycleDevice.cycle();
+  	  // Perform cycles, the cycle device catches up in one call
+	  if (count > 0) {
+		  cycles += count;
+		  cycleDevice.cycle(count);
 	  }
 
 	  // If the program counter has changed, notify the observers
@@ -16,9 +16,10 @@ import jemu.core.Util;
 */
 
 public class Z80 extends Processor {
-    protected boolean DEBUG_EXTRA = false;
-    protected boolean DEBUG_PRE = false;
-    protected boolean DEBUG_POST = false;
+    protected static final boolean DEBUG_EXTRA = false;
+    protected static final boolean DEBUG_PRE = false;
+    protected static final boolean DEBUG_POST = false;
+    protected static final boolean DEBUG_TIMES = DEBUG_EXTRA || DEBUG_PRE || DEBUG_POST;
           byte[] preEDD = new byte[80];
 
     JFrame timesetter;
@@ -295,6 +296,21 @@ public class Z80 extends Processor {
     }
   };
 
+  // Sign, zero, undocumented 5/3 and parity flags for each 8-bit result
+  protected static final int[] SZP = new int[256];
+
+  // Flags (other than carry) after INC r/DEC r giving each 8-bit result
+  protected static final int[] INC_FLAGS = new int[256];
+  protected static final int[] DEC_FLAGS = new int[256];
+  static {
+    for (int i = 0; i < 256; i++) {
+      int sz = i == 0 ? FZ | (i & 0xa8) : i & 0xa8;
+      SZP[i] = sz | PARITY[i];
+      INC_FLAGS[i] = sz | ((i & 0x0f) == 0 ? FH : 0) | (i == 0x80 ? FPV : 0);
+      DEC_FLAGS[i] = sz | FN | ((i & 0x0f) == 0x0f ? FH : 0) | (i == 0x7f ? FPV : 0);
+    }
+  };
+
   public Z80(long cyclesPerSecond) {
     super("Zilog Z80", cyclesPerSecond);
     setTimes();
@@ -782,7 +798,12 @@ public class Z80 extends Processor {
 		step(0);
 	}
 	else
-	      step(fetchOpCode());
+	      stepOpCode(fetchOpCode());
+  }
+
+  // Runs the instruction whose opcode fetchOpCode() has just read from PC - 1
+  protected void stepOpCode(int opcode) {
+    step(opcode);
   }
 
   protected final void step(int opcode) {
@@ -792,7 +813,9 @@ public class Z80 extends Processor {
     interruptExecute = (interruptPending != 0) && oldIFF && IFF1;
   }
 
-  protected void executeNormal(int opcode) {
+  // Reads the timing editor fields now and then. Only used while tuning the timing
+  // tables, kept out of executeNormal() so the interpreter stays small.
+  protected void pollTimeEditors() {
       if (DEBUG_EXTRA){
           checktimes++;
           if (checktimes > 1000){
@@ -1007,6 +1030,11 @@ public class Z80 extends Processor {
       catch (Exception e){}
       }
       }
+  }
+
+  protected void executeNormal(int opcode) {
+      if (DEBUG_TIMES)
+        pollTimeEditors();
 
     cycle(timePre[opcode]);
     R++;
@@ -2244,8 +2272,7 @@ public class Z80 extends Processor {
 
   protected void andan(int n) {
     int a = reg[A] = reg[A] & n;
-    int f = a & 0xa8 | FH | PARITY[a];
-    reg[F] = a == 0 ? f | FZ : f;
+    reg[F] = SZP[a] | FH;
   }
 
   protected void andahl() {
@@ -2259,8 +2286,7 @@ public class Z80 extends Processor {
 
   protected void oran(int n) {
     int a = reg[A] = reg[A] | n;
-    int f = a & 0xa8 | PARITY[a];
-    reg[F] = a == 0 ? f | FZ : f;
+    reg[F] = SZP[a];
   }
 
   protected void orahl() {
@@ -2274,8 +2300,7 @@ public class Z80 extends Processor {
 
   protected void xoran(int n) {
     int a = reg[A] = reg[A] ^ n;
-    int f = a & 0xa8 | PARITY[a];
-    reg[F] = a == 0 ? f | FZ : f;
+    reg[F] = SZP[a];
   }
 
   protected void xorahl() {
@@ -2570,8 +2595,7 @@ public class Z80 extends Processor {
     int b = readByte(hl);
     writeByte(hl,((b << 4) | (a & 0x0f)) & 0xff);
     reg[A] = a = (a & 0xf0) | ((b >> 4) & 0x0f);
-    int f = (reg[F] & FLAG_MASK_RLD) | (a & (FS | F5 | F3)) | PARITY[a];
-    reg[F] = a == 0 ? f | FZ : f;
+    reg[F] = (reg[F] & FLAG_MASK_RLD) | SZP[a];
   }
 
   // TODO: Extensive testing on this instruction
@@ -2581,8 +2605,7 @@ public class Z80 extends Processor {
     int b = readByte(hl);
     writeByte(hl,((a << 4) & 0xf0) | ((b >> 4) & 0x0f));
     reg[A] = a = (a & 0xf0) | (b & 0x0f);
-    int f = (reg[F] & FLAG_MASK_RLD) | (a & (FS | F5 | F3)) | PARITY[a];
-    reg[F] = a == 0 ? f | FZ : f;
+    reg[F] = (reg[F] & FLAG_MASK_RLD) | SZP[a];
   }
 
   // -------------------------------------------------------------
@@ -2735,14 +2758,12 @@ public class Z80 extends Processor {
   protected void inrc(int opcode) {
     int r = (opcode & 0x38) >> 3;
     int result = reg[r] = in(getqq(BC));
-    int f = (reg[F] & FLAG_MASK_IN) | (result & (FS | F5 | F3)) | PARITY[result];
-    reg[F] = result == 0 ? f | FZ : f;
+    reg[F] = (reg[F] & FLAG_MASK_IN) | SZP[result];
   }
 
   protected void inc() {
     int result = in(getqq(BC));
-    int f = (reg[F] & FLAG_MASK_IN) | (result & (FS | F5 | F3)) | PARITY[result];
-    reg[F] = result == 0 ? f | FZ : f;
+    reg[F] = (reg[F] & FLAG_MASK_IN) | SZP[result];
   }
 
   protected void ini() {
@@ -2884,99 +2905,66 @@ public class Z80 extends Processor {
 
   protected int incn(int n) {
     n = (n + 1) & 0xff;
-    int f = n & 0xa8 | (reg[F] & FC);
-    if ((n & 0x0f) == 0)
-      f |= FH;
-    if (n == 0x80)
-      f |= FPV;
-    else if (n == 0)
-      f |= FZ;
-    reg[F] = f;
+    reg[F] = INC_FLAGS[n] | (reg[F] & FC);
     return n;
   }
 
   protected int decn(int n) {
     n = (n - 1) & 0xff;
-    int f = n & 0xa8 | (reg[F] & FC) | FN;
-    if ((n & 0x0f) == 0x0f)
-      f |= FH;
-    if (n == 0x7f)
-      f |= FPV;
-    else if (n == 0)
-      f |= FZ;
-    reg[F] = f;
+    reg[F] = DEC_FLAGS[n] | (reg[F] & FC);
     return n;
   }
 
   protected int rlcn(int n) {
     int c = (n & 0x80) == 0 ? 0 : 1;
     n = ((n << 1) | c) & 0xff;
-    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
-    reg[F] = n == 0 ? f | FZ : f;
+    reg[F] = SZP[n] | c;
     return n;
   }
 
   protected int rln(int n) {
-    int f = reg[F];
-    n = (n << 1) | (f & FC);
-    f = (n & (FS | F5 | F3));
-    if ((n & 0x100) != 0)
-      f |= FC;
-    n &= 0xff;
-    reg[F] = (n == 0 ? f | FZ : f) | PARITY[n];
-    return n;
+    n = (n << 1) | (reg[F] & FC);
+    reg[F] = SZP[n & 0xff] | (n >> 8);
+    return n & 0xff;
   }
 
   protected int rrcn(int n) {
     int c = n & 0x01;
     n = ((n >> 1) | (c << 7)) & 0xff;
-    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
-    reg[F] = n == 0 ? f | FZ : f;
+    reg[F] = SZP[n] | c;
     return n;
   }
 
   protected int rrn(int n) {
-    int f = reg[F];
     int c = n & 0x01;
-    n = ((f & FC) == 0 ? n >> 1 : (n >> 1) | 0x80) & 0xff;
-    f = (n & (FS | F5 | F3)) | c | PARITY[n];
-    reg[F] = n == 0 ? f | FZ : f;
+    n = ((reg[F] & FC) == 0 ? n >> 1 : (n >> 1) | 0x80) & 0xff;
+    reg[F] = SZP[n] | c;
     return n;
   }
 
   protected int slan(int n) {
     n <<= 1;
-    int f = n & (FS | F5 | F3);
-    if ((n & 0x100) != 0)
-      f |= FC;
-    n &= 0xff;
-    reg[F] = (n == 0 ? f | FZ : f) | PARITY[n];
-    return n;
+    reg[F] = SZP[n & 0xff] | (n >> 8);
+    return n & 0xff;
   }
 
   protected int slln(int n) {
     n = (n << 1) | 1;
-    int f = n & (FS | F5 | F3);
-    if ((n & 0x100) != 0)
-      f |= FC;
-    n &= 0xff;
-    reg[F] = (n == 0 ? f | FZ : f) | PARITY[n];
-    return n;
+    reg[F] = SZP[n & 0xff] | (n >> 8);
+    return n & 0xff;
   }
 
   protected int sran(int n) {
     int c = n & 0x01;
     n = (n >> 1) | (n & 0x80);
-    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
-    reg[F] = n == 0 ? f | FZ : f;
+    reg[F] = SZP[n] | c;
     return n;
   }
 
   protected int srln(int n) {
     int c = n & 0x01;
     n >>= 1;
-    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
-    reg[F] = n == 0 ? f | FZ : f;
+    reg[F] = SZP[n] | c;
     return n;
   }
 
@@ -32,7 +32,7 @@ public abstract class Computer extends Device implements Runnable, ItemListener
 
   public JComboBox box = new JComboBox();
   public String[] content = new String[20000];
-  public Frame dummy = new Frame();
+  public Frame dummy = isHeadless() ? null : new Frame();
   public int count, rubbish;
   public int choosen = 0;
   ItemEvent ev;
@@ -98,6 +98,10 @@ public abstract class Computer extends Device implements Runnable, ItemListener
   protected int runTo = -1;
   protected int mode = STOP;
   protected long maxResync = 200;
+  protected int warpFrame = 0;
+  protected long warpTime = 0;
+  protected long warpCycles = 0;
+  protected double emulatedMHz = 0;
   protected int currentDrive = 0;
   // Devices used in this computer
   protected Vector devices = new Vector();
@@ -105,6 +109,15 @@ public abstract class Computer extends Device implements Runnable, ItemListener
   // Listeners for stopped emulation
   protected Vector listeners = new Vector(1);
 
+  /**
+   * Returns true if the emulation runs without any user interface, ie. when
+   * started with -Djava.awt.headless=true (batch runs). Computers must not create
+   * windows, dialogs or sound lines in this mode and the Display may be null.
+   */
+  public static boolean isHeadless() {
+    return GraphicsEnvironment.isHeadless();
+  }
+
   public static Computer createComputer(Applet applet, String name) throws Exception {
     for (int index = 0; index < COMPUTERS.length; index++) {
       if (COMPUTERS[index].key.equalsIgnoreCase(name)) {
@@ -429,6 +442,8 @@ public abstract class Computer extends Device implements Runnable, ItemListener
   public abstract void bootDiskb();
 
   public abstract void AutoType();
+
+  public void AutoType(String text) { }
   
   public abstract void MouseFire1();
   public abstract void MouseFire2();
@@ -457,6 +472,8 @@ public abstract class Computer extends Device implements Runnable, ItemListener
   }
 
   public void start() {
+    if (isHeadless())
+      return;     // Headless runs are driven by runFor() from the calling thread
     setAction(RUN);
   }
 
@@ -477,7 +494,8 @@ public abstract class Computer extends Device implements Runnable, ItemListener
       action = STOP;
   //    System.out.println(this + " Stopping " + getProcessor());
       getProcessor().stop();
-      display.setPainted(true);
+      if (display != null)
+        display.setPainted(true);
       while(running) {
         try {
         //  System.out.println("stopping...");
@@ -528,6 +546,25 @@ public abstract class Computer extends Device implements Runnable, ItemListener
     }
   }
 
+  /**
+   * Runs the emulation in the calling thread for the given number of processor
+   * cycles, without waiting on the emulation thread or any ComputerTimer.
+   * Used by headless batch runs. With no Display attached nothing is rendered.
+   */
+  public void runFor(long cycles) {
+    Processor processor = getProcessor();
+    if (display == null)
+      setFrameSkip(1);
+    long end = processor.getCycles() + cycles;
+    mode = RUN;
+    try {
+      while (processor.getCycles() < end)
+        processor.step();
+    } finally {
+      mode = STOP;
+    }
+  }
+
   public void addActionListener(ActionListener listener) {
     listeners.addElement(listener);
   }
@@ -695,6 +732,51 @@ public abstract class Computer extends Device implements Runnable, ItemListener
     }
   }
   
+  /**
+   * Replaces syncProcessor() while Switches.warp is set. Never waits for the timer,
+   * only lets every Switches.warpFrames frame be rendered and measures the speed
+   * reached, expressed in MHz of the emulated CPU clock.
+   *
+   * @param clockMHz Real clock of the emulated CPU in MHz
+   */
+  protected void warpSync(double clockMHz) {
+    long cycles = getProcessor().getCycles();
+    long time = System.currentTimeMillis();
+    if (warpTime == 0 || cycles < warpCycles) {
+      warpTime = time;
+      warpCycles = cycles;
+    }
+    else if (time - warpTime >= 1000) {
+      emulatedMHz = clockMHz * (cycles - warpCycles) * 1000 /
+        getProcessor().getCyclesPerSecond() / (time - warpTime);
+      Display.warpMHz = emulatedMHz;
+      warpTime = time;
+      warpCycles = cycles;
+    }
+    if (++warpFrame >= Switches.warpFrames) {
+      warpFrame = 0;
+      setFrameSkip(0);
+    }
+    else
+      setFrameSkip(1);
+  }
+
+  public double getEmulatedMHz() {
+    return emulatedMHz;
+  }
+
+  public void setWarp(boolean value) {
+    if (Switches.warp != value) {
+      Switches.warp = value;
+      warpTime = 0;
+      emulatedMHz = Display.warpMHz = 0;
+      if (!value) {
+        setFrameSkip(0);
+        reSync();
+      }
+    }
+  }
+
   public void setMaxResync(long value) {
     maxResync = value;
   }
@@ -36,6 +36,15 @@ public abstract class Device {
 
   public void cycle() { }
 
+  /**
+   * Advances the device by count cycles at once. Devices which can catch up in
+   * bulk (nothing due before a known cycle) should override this.
+   */
+  public void cycle(int count) {
+    for (; count > 0; count--)
+      cycle();
+  }
+
   public void reset() { }
 
   public void setInterrupt(int mask) { }
@@ -122,6 +122,20 @@ public class Basic6845 extends CRTC {
     setEvents();
   }
 
+  /**
+   * Returns the counters to their power on state, as the RESET input of the 6845
+   * does. The registers are kept.
+   */
+  public void resetCounters() {
+    reset();
+    vCC = ra = ma = 0;
+    maBase = maScreen = 0;
+    hDisp = vDisp = true;
+    inVSync = false;
+    vSyncCount = vtAdj = frame = 0;
+    cursorCount = 0;
+  }
+
   public void setWriteMask(int reg, int mask) {
     wrMask[reg] = mask;
   }
@@ -22,7 +22,7 @@ import jemu.ui.JEMU;
  * @author Richard, Markus
  */
 public class UPD765A extends Device {
-  public static virtualDrive floppy = new virtualDrive();
+  public static virtualDrive floppy = Computer.isHeadless() ? null : new virtualDrive();
 
 
   protected int counter;
@@ -85,6 +85,15 @@ public class UPD765A extends Device {
   protected static final int READ_TIME_MFM = 16 * 8;
   protected static final int POLL_TIME     = 1024 * 8;
 
+  /**
+   * Time seeks, polls and reading IDs take in the fast mode, Switches.fastfdc. In the
+   * execution phase of that mode the next byte is there whenever the Z80 polls for
+   * it, so a sector goes as fast as the Z80 moves the data. A byte the Z80 does not
+   * take still passes after the MFM time as in the accurate mode, which
+   * copy-protected titles may need.
+   */
+  protected static final int FAST_TIME     = 4 * 4;
+
   protected static final int   POLL             = 0;
   protected static final int   SEEK             = 1;
   protected static final int   READ_ID          = 2;
@@ -169,7 +178,7 @@ public class UPD765A extends Device {
 protected int 			sectorcount;				// sector count for format
   protected int                cycleRate;                    // Number of cycles per cycle() call, should be 1, 2, 4 or
   // 8
-  protected int                countPoll, countStep, countFM, countMFM;
+  protected int                countPoll, countStep, countFM, countMFM, countFast;
 
   protected Drive[]            drives           = new Drive[4];
   protected int[]              pcn              = new int[4];
@@ -197,9 +206,11 @@ protected int 			sectorcount;				// sector count for format
       case 8: cycleRate = clocksPerCycle; break;
       default: cycleRate = 4; break;
     }
+    if (floppy != null) {
      floppy.setTitle("NEC uPD765AC-2");
      floppy.setUndecorated(true);
      floppy.setAlwaysOnTop(true);
+    }
  /*   countPoll = POLL_TIME * cycleRate;
     countFM   = READ_TIME_FM * cycleRate;
     countMFM  = READ_TIME_MFM * cycleRate;*/
@@ -207,6 +218,7 @@ protected int 			sectorcount;				// sector count for format
     countPoll = POLL_TIME / cycleRate;
     countFM   = READ_TIME_FM / cycleRate;
     countMFM  = READ_TIME_MFM / cycleRate;
+    countFast = FAST_TIME / cycleRate;
     reset();
   }
 
@@ -241,6 +253,8 @@ protected int 			sectorcount;				// sector count for format
     if ((port & 0x01) == 0) {
        // if (DEBUG)
       //System.out.println("FDC Status Read: " + Util.hex((byte)status));
+      if ((status & (EXEC_MODE | REQ_MASTER)) == EXEC_MODE)
+        hurry();
       return status;
     }
 
@@ -265,8 +279,10 @@ protected int 			sectorcount;				// sector count for format
       data = (byte)value;
       //System.out.println("FDC write: " + Util.hex((short)port) + "," + Util.hex((byte)value));
       if ((status & (REQ_MASTER | DATA_IN_OUT)) == REQ_MASTER) {
-        if ((status & EXEC_MODE) != 0)
+        if ((status & EXEC_MODE) != 0) {
           status &= ~REQ_MASTER;
+          hurry();
+        }
         else if ((status & COMMAND_BUSY) == 0) {
           // Can start a command
           command = value;
@@ -486,7 +502,7 @@ protected int 			sectorcount;				// sector count for format
         }
         if (action != SEEK) {
             action = SEEK;
-            next = count + countStep;   // TODO: Real FDC might use counters for each drive
+            next = count + delay(countStep);   // TODO: Real FDC might use counters for each drive
         }
     }
   }
@@ -505,14 +521,15 @@ protected int 			sectorcount;				// sector count for format
           ncn[drive] = pcn[drive];
           seekEnd(drive, ST0_ABNORMAL | ST0_EQUIP_CHECK);
         } else {
-            next = count + countStep;
+            next = count + delay(countStep);
             String track;// = Util.hex(params[1]).substring(6);
             if (pcn[drive] <=9)
                 track = "0";
             else
                 track = "";
             jemu.ui.Display.track = track+pcn[drive];
-            floppy.trackpos = pcn[drive];
+            if (floppy != null)
+                floppy.trackpos = pcn[drive];
             jemu.ui.Display.sector = Util.hex(params[3]).substring(6);
             jemu.ui.Display.drive = ""+actualDrive;
             if (activeDrive != null)
@@ -536,12 +553,40 @@ protected int 			sectorcount;				// sector count for format
     // Set interrupt. If no drives still seeking
     if ((dir[0] | dir[1] | dir[2] | dir[3]) == 0) {
       action = POLL;
-      next = count + countPoll;
+      next = count + delay(countPoll);
         if (activeDrive != null)
             activeDrive.setActive(true);
     }
   }
 
+  /**
+   * @param cycles cycles an event takes in the accurate mode
+   * @return cycles it takes in the current mode
+   */
+  protected final int delay(int cycles) {
+    return Switches.fastfdc ? countFast : cycles;
+  }
+
+  /**
+   * Called when the Z80 polls or writes the FDC in the execution phase while the
+   * FDC waits for the disc. In the fast mode the byte is moved at once.
+   */
+  protected final void hurry() {
+    if (Switches.fastfdc) {
+      switch (action) {
+      case READ:
+        readSectorByte();
+        break;
+      case WRITE:
+        writeSectorByte();
+        break;
+      case FORMAT:
+        writeFormatByte();
+        break;
+      }
+    }
+  }
+
   public final void poll() {
     Switches.write = false;
     actualDrive = params[0] & 0x03;
@@ -579,7 +624,7 @@ protected int 			sectorcount;				// sector count for format
       action = READ_ID;
       status ^= REQ_MASTER | DATA_IN_OUT;
      // next = count + (countPoll);
-      next = count + (1200 / cycleRate);  // TODO: Accurate timing!
+      next = count + delay(1200 / cycleRate);  // TODO: Accurate timing!
     }
   }
 
@@ -601,7 +646,7 @@ protected int 			sectorcount;				// sector count for format
       activeDrive.setActive(false);
     status |= REQ_MASTER;
     action = POLL;
-    next = count + countPoll;
+    next = count + delay(countPoll);
   }
 
   protected final void readSectorByte() {
@@ -669,7 +714,7 @@ protected final void endFormatID() {
       result[6] = params[4];
       rcount = 7;
       action = POLL;
-      next = count + countPoll;
+      next = count + delay(countPoll);
       activeDrive.setActive(false);
     }
     else {
@@ -708,7 +753,8 @@ protected final void endFormatID() {
             track = "";
        // JEMU.menue7.setLabel("  T:" + track+params[1] + " | S:" + sector + " DF" + actualDrive);
         jemu.ui.Display.track = track+params[1];
-        floppy.trackpos = params[1];
+        if (floppy != null)
+            floppy.trackpos = params[1];
         jemu.ui.Display.sector = Util.hex(params[3]).substring(6);
         jemu.ui.Display.drive = ""+actualDrive;
       offset = 0;
@@ -723,14 +769,14 @@ protected final void endFormatID() {
         status = (status & ~DATA_IN_OUT) | REQ_MASTER | EXEC_MODE;  // ??? Is RQM high immediately?
         Switches.write = true;
       }
-      next = count + (countPoll);
+      next = count + (countPoll);   // Shortened by hurry() in the fast mode
        // next = count + (800 / cycleRate);
       data = -1;
     }
     else {
       status |= DATA_IN_OUT;
       action = POLL;
-      next = count + countPoll;
+      next = count + delay(countPoll);
       activeDrive.setActive(false);
     }
   }
@@ -748,7 +794,7 @@ protected final void endFormatID() {
           result[6] = params[4] = id[3]; // sector size
           rcount = 7;
           action = POLL;
-          next = count + countPoll;
+          next = count + delay(countPoll);
           activeDrive.setActive(false);
       }
       else {
@@ -774,6 +820,7 @@ protected final void endFormatID() {
     buffer[offset++] = (byte)data;
     data = -1;
     if (offset == buffer.length){
+      activeDrive.writeSector(params[1], params[2], params[3], params[4], buffer);
       endBuffer(WRITE);
       saveCheck();
     }
@@ -812,12 +859,35 @@ protected final void endFormatID() {
         jemu.system.cpc.CPC.savetimer = 1;
   }
 int oldtrack;
+  /**
+   * Skips straight to the next cycle on which the current action or the drive
+   * window update is due, only that cycle is done the normal way.
+   */
+  @Override
+  public final void cycle(int cycles) {
+    while (cycles > 0) {
+      long due = (next - count - 1) & 0xffffffffL;
+      int skip = (int)Math.min(Math.min(cycles, 49999 - counter), due);
+      if (skip > 0) {
+        oldtrack = params[1];
+        count += skip;
+        counter += skip;
+        cycles -= skip;
+      }
+      if (cycles > 0) {
+        cycle();
+        cycles--;
+      }
+    }
+  }
+
   @Override
   public final void cycle() {
       oldtrack = params[1];
       counter++;
       if (counter == 50000){
-      floppy.update();
+      if (floppy != null)
+          floppy.update();
       counter= 0;
       }
     if (++count == next) {
@@ -57,8 +57,23 @@ public final double[] LOG_VOLUME = {
         5.34195468 , 6.70450904 , 8.46166171 , 10.6250858 , 12.6333257 , 15
     };
 
+    // The same tables for 16 bit output. 15 becomes 0x3c00, as loud as the
+    // 8 bit output of 60 per channel.
+    protected final int[] AMP_LINEAR = amplitudes(LINEAR_VOLUME);
+    protected final int[] AMP_CPCE95 = amplitudes(LOG_VOLUME);
+    protected final int[] AMP_A      = amplitudes(LOG_VOLUME_A);
+    protected final int[] AMP_B      = amplitudes(LOG_VOLUME_B);
+
+    protected static int[] amplitudes(double[] volumes) {
+        int[] result = new int[volumes.length];
+        for (int i = 0; i < volumes.length; i++)
+            result[i] = (int)(volumes[i] * 0x400 + 0.5);
+        return result;
+    }
+
 
 protected int vuL, vuR;
+    protected int left16, right16;
     protected int leftchange, rightchange;
     public boolean register13Updated = false;
   public static boolean     digiblast = false;
@@ -135,6 +150,7 @@ protected int vuL, vuR;
   protected int[] count    = new int[5];  // A, B, C, Noise and Envelope counters
   protected int[] period   = new int[5];  // A, B, C, Noise and Envelope
   protected int[] volume   = new int[5];  // A, B, C, Noise and Envelope (Vol[3] not used)
+  protected int[] cnt      = new int[3];  // A, B and C high time of the current sample
   protected int outN, random = 1;
   protected int countEnv, hold, alternate, attack, holding;
   
@@ -144,7 +160,7 @@ protected int vuL, vuR;
     super("AY-3-8910/2/3 Programmable Sound Generator");
     setClockSpeed(clockSpeed);
     player = SoundUtil.getSoundPlayer(200,true);
-    player.setFormat(SoundUtil.UPCM8);
+    player.setFormat(Switches.audio16 ? SoundUtil.PCM16 : SoundUtil.UPCM8);
   }
 
   public void setClockSpeed(int value) {
@@ -309,7 +325,8 @@ protected int vuL, vuR;
         count[NOISE] += step;
     }
     // output Sound bytes
-    int[] cnt = new int[3];
+    int[] cnt = this.cnt;
+    cnt[A] = cnt[B] = cnt[C] = 0;
     int left = step;
     do {
       int add = count[NOISE] < left ? count[NOISE] : left;
@@ -394,26 +411,23 @@ protected int vuL, vuR;
       }
     }
     
-    int a = (int)(LOG_VOLUME_A[volume[A]]) * cnt[A] >> 13;
-    int b = (int)(LOG_VOLUME_A[volume[B]]) * cnt[B] >> 13;
-    int c = (int)(LOG_VOLUME_A[volume[C]]) * cnt[C] >> 13;
+    double[] table = LOG_VOLUME_A;
+    int[] amp = AMP_A;
     if (Switches.VSoftOutput){
-        a = (int)(LOG_VOLUME_B[volume[A]]) * cnt[A] >> 13;
-        b = (int)(LOG_VOLUME_B[volume[B]]) * cnt[B] >> 13;
-        c = (int)(LOG_VOLUME_B[volume[C]]) * cnt[C] >> 13;
+        table = LOG_VOLUME_B;
+        amp = AMP_B;
     }
     if (Switches.CPCE95){
-        a = (int)(LOG_VOLUME[volume[A]]) * cnt[A] >> 13;
-        b = (int)(LOG_VOLUME[volume[B]]) * cnt[B] >> 13;
-        c = (int)(LOG_VOLUME[volume[C]]) * cnt[C] >> 13;
+        table = LOG_VOLUME;
+        amp = AMP_CPCE95;
     }
-
     if (Switches.linear){
-        a = (int)(LINEAR_VOLUME[volume[A]]) * cnt[A] >> 13;
-        b = (int)(LINEAR_VOLUME[volume[B]]) * cnt[B] >> 13;
-        c = (int)(LINEAR_VOLUME[volume[C]]) * cnt[C] >> 13;
-
+        table = LINEAR_VOLUME;
+        amp = AMP_LINEAR;
     }
+    int a = (int)(table[volume[A]]) * cnt[A] >> 13;
+    int b = (int)(table[volume[B]]) * cnt[B] >> 13;
+    int c = (int)(table[volume[C]]) * cnt[C] >> 13;
     a *= Switches.volume;
     b *= Switches.volume;
     c *= Switches.volume;
@@ -422,10 +436,26 @@ protected int vuL, vuR;
     leftChannel     = (a + b);
     rightChannel    = (b + c);
 
+    if (player.getFormat() == SoundUtil.PCM16) {
+        // cnt[] is the time each channel was high during the sample, so the
+        // output is the box filtered level at the full table resolution
+        a = amp[volume[A]] * cnt[A] >> 15;
+        b = amp[volume[B]] * cnt[B] >> 15;
+        c = amp[volume[C]] * cnt[C] >> 15;
+        if (Switches.ayeffect)
+            b = (int)(b*0.55);
+        left16  = clip16((int)((a + b) * Switches.volume));
+        right16 = clip16((int)((b + c) * Switches.volume));
+    }
+
     soundOutput(leftChannel, rightChannel);
 
   }
 
+  protected static int clip16(int value) {
+    return value > 0x7fff ? 0x7fff : value < -0x8000 ? -0x8000 : value;
+  }
+
   public void setReadDevice(int port, Device device, int readPort) {
     ports[port].setInputDevice(device,readPort);
   }
@@ -453,7 +483,16 @@ protected int vuL, vuR;
         BvuMeter();
     else
         vuMeter(leftChannel, rightChannel);
-    player.writeStereo(leftChannel , rightChannel);
+    if (player.getFormat() == SoundUtil.PCM16) {
+        if (digiblast || Switches.audioenabler != 1) {
+            // same level the 8 bit line would play for these values
+            left16  = (((leftChannel ^ 0x80) & 0xff) - 0x80) << 8;
+            right16 = (((rightChannel ^ 0x80) & 0xff) - 0x80) << 8;
+        }
+        player.writeStereo(left16, right16);
+    }
+    else
+        player.writeStereo(leftChannel , rightChannel);
   }
 
   public void setWriteDevice(int port, Device device, int writePort) {
@@ -101,7 +101,8 @@ public class AudioCapture extends JComponent{
             counter+=length;
 		Subchunk2Size = counter;
 		ChunkSize = 36 + Subchunk2Size;
-        putLong(WAV_HEADER , 28, 88200);
+        putLong(WAV_HEADER , 24, JavaSound.SAMPLE_RATE);
+        putLong(WAV_HEADER , 28, JavaSound.SAMPLE_RATE * 2);
         putLong(WAV_HEADER , 40, Subchunk2Size);
         putLong(WAV_HEADER ,  4, ChunkSize);
         }
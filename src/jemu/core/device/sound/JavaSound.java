@@ -23,15 +23,29 @@ public class JavaSound extends SunAudio {
     AudioCapture capture = new AudioCapture();
 
   public static int SAMPLE_RATE = 44100;
-  
-  protected static AudioFormat MONO_FORMAT = new AudioFormat(SAMPLE_RATE, 8, 1, false, true);
-  protected static AudioFormat STEREO_FORMAT = new AudioFormat(SAMPLE_RATE, 8, 2, false, false);
+
+  /** Range of Switches.audioLatency in ms */
+  public static final int MIN_LATENCY = 10;
+  public static final int MAX_LATENCY = 1000;
   
   protected SourceDataLine line;
   protected byte[] data;
+  protected byte[] preview;   // 8 bit copy of data for the capture window
   protected int offset = 0;
   protected int channels;
+  protected int frameSize;
   protected long startCount;
+
+  // Completed blocks are queued here and written to the line by the audio
+  // thread, so the emulation never blocks in SourceDataLine.write().
+  // Single producer (emulation) and single consumer (audio thread). Sized by
+  // open() to hold twice the latency, at least 128 KB.
+  protected byte[] ring;
+  protected volatile long ringWrite = 0;
+  protected volatile long ringRead = 0;
+  protected volatile long ringFlush = -1;
+  protected Thread audioThread;
+  protected boolean started;   // line started by play() and not stopped since
   
   /** Creates a new instance of JavaSound.
    *
@@ -49,24 +63,142 @@ public class JavaSound extends SunAudio {
   protected void init() {
     format = SoundUtil.UPCM8;
     channels = stereo ? 2 : 1;
-    data = new byte[samples * channels];
-    AudioFormat format = stereo ? STEREO_FORMAT : MONO_FORMAT;
+    open();
+  }
+
+  /**
+   * Opens the line for the current format, signed 16 bit for PCM16 and
+   * unsigned 8 bit otherwise (the other formats are converted to it).
+   */
+  protected void open() {
+    boolean pcm16 = format == SoundUtil.PCM16;
+    frameSize = pcm16 ? channels * 2 : channels;
+    data = new byte[samples * frameSize];
+    preview = pcm16 ? new byte[samples * channels] : data;
+    offset = 0;
+    int size = 0x20000;
+    while (size < 2 * getLatencyBytes() + data.length)
+      size <<= 1;
+    if (ring == null || ring.length != size)
+      ring = new byte[size];
+    AudioFormat format = pcm16 ? new AudioFormat(SAMPLE_RATE, 16, channels, true, false) :
+      new AudioFormat(SAMPLE_RATE, 8, channels, false, !stereo);
     try {
       line = (SourceDataLine)AudioSystem.getLine(
-        new DataLine.Info(SourceDataLine.class, format, SAMPLE_RATE * channels));
+        new DataLine.Info(SourceDataLine.class, format, SAMPLE_RATE * frameSize));
       line.open();
     } catch(Exception e) {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Switching between 16 and 8 bit opens a new line. A running audio thread is
+   * stopped first and the audio queued in the old format is dropped, then the
+   * thread and the line are started again. Called from the emulation thread like
+   * writeStereo(), or while the emulation is stopped.
+   */
+  public void setFormat(int value) {
+    boolean reopen = (value == SoundUtil.PCM16) != (format == SoundUtil.PCM16);
+    super.setFormat(value);
+    if (!reopen)
+      return;
+    boolean running = audioThread != null;
+    if (running) {
+      playing = false;
+      if (line != null) {
+        // a write blocked on the stopped line returns once it is flushed
+        line.stop();
+        line.flush();
+      }
+      join();
+      audioThread = null;
+    }
+    ringRead = ringWrite;
+    ringFlush = -1;
+    if (line != null)
+      line.close();
+    open();
+    if (running) {
+      boolean restart = started;
+      startThread();
+      if (restart)
+        play();
+    }
+  }
+
+  protected void startThread() {
+    playing = true;
+    audioThread = new Thread(this, "JavaSound");
+    audioThread.setDaemon(true);
+    audioThread.setPriority(Thread.MAX_PRIORITY);
+    audioThread.start();
+  }
+
+  protected void join() {
+    try {
+      if (audioThread != null)
+        audioThread.join(1000);
+    } catch(Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  public void run() {
+    while (playing) {
+      long flush = ringFlush;
+      if (flush >= 0) {
+        ringRead = flush;
+        ringFlush = -1;
+        line.flush();
+      }
+      long read = ringRead;
+      int len = (int)Math.min(ringWrite - read, ring.length - (int)(read & (ring.length - 1)));
+      if (len > 0) {
+        line.write(ring, (int)(read & (ring.length - 1)), len);
+        ringRead = read + len;
+      }
+      else {
+        try {
+          Thread.sleep(1);
+        } catch(Exception e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Queues bytes for the audio thread. Dropped when the queue is full, which
+   * only happens when the line isn't playing.
+   */
+  protected void queue(byte[] buff, int len) {
+    long write = ringWrite;
+    if (write + len - ringRead > ring.length)
+      return;
+    int pos = (int)(write & (ring.length - 1));
+    int first = Math.min(len, ring.length - pos);
+    System.arraycopy(buff, 0, ring, pos, first);
+    System.arraycopy(buff, first, ring, 0, len - first);
+    ringWrite = write + len;
+  }
   
   public void resync() {
+    // the audio thread drops what is queued, give it up to 200 ms to do so
+    ringFlush = ringWrite;
+    for (int wait = 0; ringFlush >= 0 && audioThread != null && wait < 200; wait++) {
+      try {
+        Thread.sleep(1);
+      } catch(Exception e) {
+        e.printStackTrace();
+      }
+    }
     line.flush();
     startCount = line.getLongFramePosition();
-    int samples = SAMPLE_RATE / 10 * channels;   // 1/10 sec (100 ms) delay
+    int samples = getLatencyBytes();
     while (samples > 0) {
       int len = Math.min(data.length,samples);
-      line.write(data,0,len);
+      queue(data,len);
       samples -= len;
     }
     if (Switches.turbo >=2){
@@ -84,19 +216,47 @@ public class JavaSound extends SunAudio {
   }
   
   public long getDeviation() {
-    return SAMPLE_RATE / 10;    // 100 ms
+    return SAMPLE_RATE * Switches.audioLatency / 1000;
+  }
+
+  /**
+   * Returns the bytes queued ahead of the sound card for Switches.audioLatency.
+   */
+  protected int getLatencyBytes() {
+    return SAMPLE_RATE * Switches.audioLatency / 1000 * frameSize;
+  }
+
+  /**
+   * Parses an audio latency setting in ms, clamped to MIN_LATENCY..MAX_LATENCY.
+   *
+   * @param value setting, the default is returned when it isn't a number
+   */
+  public static int parseLatency(String value, int defaultValue) {
+    int result = defaultValue;
+    try {
+      result = Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      System.err.println("Invalid audio latency " + value + ", using " + defaultValue + " ms");
+    }
+    return Math.max(MIN_LATENCY, Math.min(MAX_LATENCY, result));
   }
   
   public void play() {
+    if (audioThread == null)
+      startThread();
     resync();
     line.start();
+    started = true;
   }
   
   public void stop() {
     line.stop();
+    started = false;
   }
   
   public void dispose()  {
+    playing = false;
+    join();
     line.close();
   }
   
@@ -107,13 +267,24 @@ public class JavaSound extends SunAudio {
     }
     //line.write(data,offset,1);
     if (++offset == data.length) {
-      line.write(data,0,data.length);
+      queue(data,data.length);
       offset = 0;
     }
     updates++;
   }
   
   public void writeStereo(int a, int b) {
+    if (format == SoundUtil.PCM16) {
+      data[offset] = (byte)a;
+      data[offset + 1] = (byte)(a >> 8);
+      data[offset + 2] = (byte)b;
+      data[offset + 3] = (byte)(b >> 8);
+      int pos = offset >> 1;
+      preview[pos] = (byte)((a >> 8) ^ 0x80);
+      preview[pos + 1] = (byte)((b >> 8) ^ 0x80);
+      offset += 4;
+    }
+    else {
       a = a^0x80;
       b = b^0x80;
     switch(format) {
@@ -130,20 +301,22 @@ public class JavaSound extends SunAudio {
         data[offset + 1] = (byte)b;
         break;
     }
+      offset += 2;
+    }
 
-    if ((offset += 2) == data.length) {
+    if (offset == data.length) {
       if (CPC.showAudioCapture && !capture.showCapture){
         capture.showCapture();
       }
       if (!CPC.showAudioCapture && capture.showCapture)
-          capture.PaintBuffer(data);
+          capture.PaintBuffer(preview);
       if (CPC.showAudioCapture && capture.showCapture){
         capture.Audiocapture.setVisible(true);
         CPC.showAudioCapture = false;
       }
-      line.write(data,0,data.length);
+      queue(data,data.length);
         if (capture.doCapture)
-            capture.Capture(data, data.length);
+            capture.Capture(preview, preview.length);
       offset = 0;
     }
     updates++;
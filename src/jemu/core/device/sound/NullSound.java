@@ -0,0 +1,59 @@
+/*
+ * NullSound.java
+ *
+ * Silent SoundPlayer used when no audio line is available (headless batch runs).
+ */
+
+package jemu.core.device.sound;
+
+/**
+ *
+ * @author Richard
+ */
+public class NullSound extends SoundPlayer {
+
+  protected int sampleRate;
+  protected long count = 0;
+  protected int updates = 0;
+
+  public NullSound(int sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getUpdates() {
+    int result = updates;
+    updates = 0;
+    return result;
+  }
+
+  public long getDeviation() {
+    return sampleRate / 10;
+  }
+
+  public void writeMono(int value) {
+    count++;
+    updates++;
+  }
+
+  public void writeStereo(int a, int b) {
+    count++;
+    updates++;
+  }
+
+  public void play() { }
+
+  public void stop() { }
+
+  public void resync() { }
+
+  public void dispose() { }
+
+}
@@ -9,6 +9,7 @@
 
 package jemu.core.device.sound;
 import jemu.ui.Switches;
+import jemu.core.device.Computer;
 
 /**
  *
@@ -23,11 +24,13 @@ public class SoundUtil {
   public static final int UPCM16 = 4;
 
   public static SoundPlayer getSoundPlayer(int samples, boolean stereo) {
+    if (Computer.isHeadless())
+      return new NullSound(JavaSound.SAMPLE_RATE);
     return new JavaSound(samples,stereo);
   }
   
   public static SoundPlayer getSoundPlayer(boolean stereo) {
-    return new JavaSound(44,stereo);
+    return getSoundPlayer(44,stereo);
   }
   
   protected static int[] ULAW_TO_PCM16 = new int[128];
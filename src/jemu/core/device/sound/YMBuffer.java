@@ -0,0 +1,112 @@
+package jemu.core.device.sound;
+
+import java.io.*;
+
+/**
+ * Title:        JavaCPC
+ * Description:  Growable store for YM register frames.
+ *
+ * Register values are kept as bytes in fixed size chunks which are allocated as the
+ * recording grows, so a recording has no length limit and nothing is copied when it
+ * grows. Each frame takes one byte per register, in the order the registers are
+ * played back (frame by frame). The interleaved layout of YM5/YM6 files, all frames
+ * of register 0 followed by all frames of register 1 and so on, is produced only
+ * when the recording is written.
+ *
+ * @author
+ */
+
+public class YMBuffer {
+
+  protected static final int CHUNK_SHIFT = 16;
+  protected static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+  protected static final int CHUNK_MASK  = CHUNK_SIZE - 1;
+
+  protected byte[][] chunks = new byte[16][];
+  protected int length = 0;
+
+  /**
+   * Returns the number of register values stored.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Sets the number of register values stored, allocating chunks when it grows.
+   * Chunks are kept when it shrinks so a new recording reuses them.
+   */
+  public void setLength(int value) {
+    if (value > 0) {
+      int last = (value - 1) >> CHUNK_SHIFT;
+      if (last >= chunks.length) {
+        byte[][] grown = new byte[Math.max(last + 1, chunks.length * 2)][];
+        System.arraycopy(chunks, 0, grown, 0, chunks.length);
+        chunks = grown;
+      }
+      for (int i = 0; i <= last; i++)
+        if (chunks[i] == null)
+          chunks[i] = new byte[CHUNK_SIZE];
+    }
+    length = value;
+  }
+
+  public void clear() {
+    length = 0;
+  }
+
+  /**
+   * Returns a register value, 0 past the end.
+   */
+  public int get(int index) {
+    if (index < 0 || index >= length)
+      return 0;
+    return chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK] & 0xff;
+  }
+
+  /**
+   * Stores a register value, growing the buffer when index is past the end.
+   */
+  public void set(int index, int value) {
+    if (index >= length)
+      setLength(index + 1);
+    chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK] = (byte)value;
+  }
+
+  public void add(int value) {
+    set(length, value);
+  }
+
+  /**
+   * Writes the first count values frame by frame, values past the end as 0.
+   */
+  public void write(OutputStream out, int count) throws IOException {
+    int stored = Math.min(count, length);
+    for (int i = 0; i < stored; i += CHUNK_SIZE)
+      out.write(chunks[i >> CHUNK_SHIFT], 0, Math.min(CHUNK_SIZE, stored - i));
+    for (int i = stored; i < count; i++)
+      out.write(0);
+  }
+
+  /**
+   * Writes the first frames frames interleaved, register by register.
+   *
+   * @param out stream to write to
+   * @param registers number of registers in each frame
+   * @param frames number of frames to write
+   */
+  public void writeInterleaved(OutputStream out, int registers, int frames) throws IOException {
+    frames = Math.min(frames, length / registers);
+    byte[] line = new byte[Math.min(frames, CHUNK_SIZE)];
+    for (int reg = 0; reg < registers; reg++) {
+      for (int frame = 0; frame < frames; ) {
+        int count = Math.min(line.length, frames - frame);
+        for (int i = 0, index = frame * registers + reg; i < count; i++, index += registers)
+          line[i] = chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+        out.write(line, 0, count);
+        frame += count;
+      }
+    }
+  }
+
+}
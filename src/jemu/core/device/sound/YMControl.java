@@ -22,8 +22,12 @@ public static int displaycount1 = 0;
 public static int displaycount2 = 0;
 protected static int displaycount3 = 0;
 public static int DisplayStart , DisplayEnd = 0;
-public static String Monitor = "";
+public static volatile String Monitor = "";     // Drawn by the Display
 static String dot = ":";
+protected static StringBuilder timeText = new StringBuilder(16);
+protected static int counterMinutes = -1, counterSeconds = -1;
+protected static String counterDot = null;          // null while the counter scrolls
+protected static int monitorMinutes = -1, monitorSeconds = -1;
 
         protected Font font;
     protected boolean playing = false;
@@ -33,7 +37,7 @@ static String dot = ":";
       public JButton btnSTOP = new JButton(" ■ Stop ");
       public JButton btnSAVE = new JButton(" ▼ Save ");
       public static int counter = 0;
-      public static JButton YM_Counter = new JButton(" 00:00\"00 ");
+      public static JButton YM_Counter = new JButton(" 00:00 ");
       
       
 public void windowClosing(WindowEvent e) {
@@ -79,7 +83,7 @@ public void windowIconified(WindowEvent e) {
              CPC.ymcount = 0;
              CPC.YM_Play = true;
              CPC.YM_Rec = false;
-             YM_Counter.setText(" 00:00\"00 ");
+             setCounter(" 00:00 ");
       btnPLAY.setBorder(new BevelBorder(BevelBorder.LOWERED));
       btnSTOP.setBorder(new BevelBorder(BevelBorder.RAISED));
       btnREC.setBorder(new BevelBorder(BevelBorder.RAISED));
@@ -111,7 +115,7 @@ public void windowIconified(WindowEvent e) {
                  CPC.YM_vbl = 0;
                  CPC.YM_Play = false;
                  CPC.YM_Rec = true;
-                 YM_Counter.setText("PAUSED");
+                 setCounter("PAUSED");
 
       btnPLAY.setBorder(new BevelBorder(BevelBorder.LOWERED));
       btnSTOP.setBorder(new BevelBorder(BevelBorder.RAISED));
@@ -139,7 +143,7 @@ public void windowIconified(WindowEvent e) {
              displaycount1 = 0;
              displaycount2 = 0;
              DisplayStart = 0;
-             YM_Counter.setText(" 00:00\"00 ");
+             setCounter(" 00:00 ");
       btnPLAY.setBorder(new BevelBorder(BevelBorder.RAISED));
       btnSTOP.setBorder(new BevelBorder(BevelBorder.RAISED));
       btnREC.setBorder(new BevelBorder(BevelBorder.RAISED));
@@ -232,14 +236,24 @@ public void windowIconified(WindowEvent e) {
         this.addWindowListener(this);
    }
 
-  public static void doYMDisplay(String minutes, String seconds, String milliseconds, String YMtitle, String YMauthor, String YMcreator){
-      String dispText = "        " + YMtitle + " - " + YMauthor + " - " + YMcreator + "        ";
+  /**
+   * Updates the counter for a frame of YM playback or recording. The time is passed
+   * as numbers and only formatted when the minute, second or separator changes, a
+   * null YMauthor or YMcreator shows the minutes and seconds instead.
+   *
+   * @param minutes minutes played
+   * @param seconds seconds played
+   */
+  public static void doYMDisplay(int minutes, int seconds, String YMtitle, String YMauthor, String YMcreator){
       displaycount1++;
       if (displaycount1 >= 500){
           displaycount2++;
           if (displaycount2 >= 10){
+              String dispText = "        " + YMtitle + " - " +
+                  (YMauthor == null ? twoDigits(minutes) : YMauthor) + " - " +
+                  (YMcreator == null ? twoDigits(seconds) : YMcreator) + "        ";
               DisplayEnd = dispText.length();
-              YM_Counter.setText(dispText.substring( DisplayStart, DisplayStart+7 ));
+              setCounter(dispText.substring( DisplayStart, DisplayStart+7 ));
               DisplayStart++;
               if (DisplayStart > (DisplayEnd - 7))
                   DisplayStart = 0;
@@ -249,9 +263,17 @@ public void windowIconified(WindowEvent e) {
               }
           }
       }
-      else
-          YM_Counter.setText(" " + minutes + dot + seconds + "\"" + milliseconds + " ");
-          Monitor = " " + minutes + ":" + seconds + "\"" + milliseconds + " ";
+      else if (minutes != counterMinutes || seconds != counterSeconds || dot != counterDot) {
+          counterMinutes = minutes;
+          counterSeconds = seconds;
+          counterDot = dot;
+          showCounter(formatTime(minutes, seconds, dot));
+      }
+          if (minutes != monitorMinutes || seconds != monitorSeconds) {
+              monitorMinutes = minutes;
+              monitorSeconds = seconds;
+              Monitor = formatTime(minutes, seconds, ":");
+          }
           displaycount3++;
           if (displaycount3 >= 50)
               dot=".";
@@ -260,4 +282,43 @@ public void windowIconified(WindowEvent e) {
               displaycount3 = 0;
           }
   }
+
+  /**
+   * Shows a text other than the time, the time is shown again on the next frame.
+   */
+  public static void setCounter(String text) {
+      counterDot = null;
+      showCounter(text);
+  }
+
+  /**
+   * Sets the counter text on the event dispatch thread. doYMDisplay() runs on the
+   * emulation thread and calls it only when the text changes.
+   */
+  protected static void showCounter(final String text) {
+      EventQueue.invokeLater(new Runnable() {
+          public void run() {
+              YM_Counter.setText(text);
+          }
+      });
+  }
+
+  protected static String twoDigits(int value) {
+      return value <= 9 ? "0" + value : "" + value;
+  }
+
+  protected static String formatTime(int minutes, int seconds, String separator) {
+      timeText.setLength(0);
+      timeText.append(' ');
+      appendTwoDigits(minutes);
+      timeText.append(separator);
+      appendTwoDigits(seconds);
+      return timeText.append(' ').toString();
+  }
+
+  protected static void appendTwoDigits(int value) {
+      if (value <= 9)
+          timeText.append('0');
+      timeText.append(value);
+  }
 }
\ No newline at end of file
@@ -9,7 +9,7 @@ import jemu.core.Util;
  * @author John Girvin
  *
  */
-public class CDT2WAV {
+public class CDT2WAV implements Cloneable {
 
 	//
 	// CONSTANTS
@@ -525,24 +525,390 @@ public class CDT2WAV {
 			System.out.println(" OK");
 	}
 
+	//
+	// STREAMING
+	//
+	// Instead of rendering the whole tape to samples, open() prepares the block
+	// list and nextPulse() walks it lazily, returning one period of constant level
+	// at a time with its exact length in T-states. The levels and lengths follow
+	// convertPass(), only without the rounding to samples.
+	//
+
+	/** T-states per second of the ZX Spectrum clock TZX timings are given in */
+	public static final int TSTATES_PER_SECOND = 3500000;
+
+	private static final int STAGE_BLOCK  = 0;   // Start the next block
+	private static final int STAGE_PILOT  = 1;   // Pilot or pure tone pulses
+	private static final int STAGE_SYNC1  = 2;
+	private static final int STAGE_SYNC2  = 3;
+	private static final int STAGE_DATA   = 4;   // Two pulses per bit
+	private static final int STAGE_PAUSE  = 5;   // Pause after a data block
+	private static final int STAGE_PULSES = 6;   // Sequence of pulses
+	private static final int STAGE_DIRECT = 7;   // Direct recording samples
+	private static final int STAGE_LOW    = 8;   // Period at low level, then next block
+	private static final int STAGE_END    = 9;   // Final pause
+	private static final int STAGE_DONE   = 10;
+
+	private int stage = STAGE_DONE;
+	private boolean amp;            // Current level, true for high
+	private boolean level;          // Level of the pulse last returned
+	private int lowTime;            // Length of the STAGE_LOW period
+	private boolean secondHalf;     // Second pulse of a data bit
+	private long position;          // T-states before the pulse last returned
+	private int lastLength;         // Length of the period last returned
+
 	/**
-	 * MAIN CONVERSION ENTRY POINT
-	 * 
-	 * @return array of data bytes generated, or null on error
+	 * Prepares the tape for nextPulse(). This only finds the blocks, nothing is
+	 * generated up front.
+	 *
+	 * @return false if the data is not a supported TZX/CDT file
 	 */
-	public byte[] convert() {
+	public boolean open() {
+		if (!prepare())
+			return false;
+		rewind();
+		return true;
+	}
+
+	/**
+	 * Returns to the start of the tape.
+	 */
+	public void rewind() {
+		currentBlock = 0;
+		singlepulse = 0;
+		loop_start = loop_count = 0;
+		call_pos = call_num = call_cur = 0;
+		amp = false;
+		position = 0;
+		level = false;
+		stage = STAGE_BLOCK;
+		lastLength = 0;
+	}
+
+	/**
+	 * Returns the length of the next period of constant level in T-states, or -1
+	 * at the end of the tape. The level is returned by isHigh().
+	 */
+	public int nextPulse() {
+		if (lastLength > 0)
+			position += lastLength;
+		lastLength = 0;
+		while (lastLength <= 0) {
+			switch (stage) {
+				case STAGE_BLOCK:
+					startBlock();
+					break;
+				case STAGE_PILOT:
+					if (pilot > 0) {
+						pilot--;
+						pulse(sb_pilot, true);
+					} else
+						stage = id == 0x12 ? STAGE_BLOCK : STAGE_SYNC1;
+					break;
+				case STAGE_SYNC1:
+					stage = STAGE_SYNC2;
+					if (sb_sync1 > 0)
+						pulse(sb_sync1, true);
+					break;
+				case STAGE_SYNC2:
+					stage = STAGE_DATA;
+					datapos = 0;
+					bitcount = 0;
+					secondHalf = false;
+					if (sb_sync2 > 0)
+						pulse(sb_sync2, true);
+					break;
+				case STAGE_DATA:
+					if (secondHalf) {
+						secondHalf = false;
+						pulse(sb_bit, true);
+						break;
+					}
+					if (bitcount == 0) {
+						if (datalen == 0) {
+							singlepulse = 0;
+							stage = STAGE_PAUSE;
+							break;
+						}
+						bitcount = datalen != 1 ? 8 : lastbyte;
+						databyte = inpbuf[data + datapos];
+						datalen--;
+						datapos++;
+						if (bitcount <= 0) {
+							bitcount = 0;
+							break;
+						}
+					}
+					sb_bit = (databyte & 0x80) != 0 ? sb_bit1 : sb_bit0;
+					databyte <<= 1;
+					bitcount--;
+					secondHalf = singlepulse == 0;
+					pulse(sb_bit, true);
+					break;
+				case STAGE_PAUSE:
+					stage = STAGE_BLOCK;
+					if (pause > 0) {
+						pulse(milliseconds(1), false);
+						lowPeriod(milliseconds(pause - 1));
+					}
+					break;
+				case STAGE_PULSES:
+					if (pilot > 0) {
+						pilot--;
+						pulse(get2(inpbuf, data), true);
+						data += 2;
+					} else
+						stage = STAGE_BLOCK;
+					break;
+				case STAGE_DIRECT:
+					nextDirect();
+					break;
+				case STAGE_LOW:
+					amp = false;
+					stage = STAGE_BLOCK;
+					if (lowTime > 0)
+						pulse(lowTime, false);
+					amp = false;
+					break;
+				case STAGE_END:
+					stage = STAGE_DONE;
+					pulse(milliseconds(5000), false);
+					break;
+				default:
+					lastLength = -1;
+					return -1;
+			}
+		}
+		return lastLength;
+	}
+
+	/**
+	 * Returns true if the period last returned by nextPulse() is at high level.
+	 */
+	public boolean isHigh() {
+		return level;
+	}
+
+	/**
+	 * Returns the T-states from the start of the tape to the period last returned
+	 * by nextPulse().
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Moves to the period containing a position, as if it had been returned by
+	 * nextPulse().
+	 *
+	 * @return T-states left of that period, or -1 past the end of the tape
+	 */
+	public int seek(long tstates) {
+		if (tstates < position)
+			rewind();
+		int length = Math.max(lastLength, 0);
+		while (position + length <= tstates && (length = nextPulse()) >= 0);
+		return length < 0 ? -1 : (int)(position + length - tstates);
+	}
+
+	/**
+	 * Returns a generator of the same tape at the same position.
+	 */
+	public CDT2WAV duplicate() {
+		try {
+			return (CDT2WAV)clone();
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+	}
+
+	/**
+	 * Returns the length of the whole tape in T-states. This walks all pulses, the
+	 * current position is kept.
+	 */
+	public long getLength() {
+		CDT2WAV copy = new CDT2WAV(inpbuf, frequency);
+		copy.numBlocks = numBlocks;
+		copy.blockStart = blockStart;
+		copy.rewind();
+		while (copy.nextPulse() >= 0);
+		return copy.position;
+	}
+
+	private void pulse(int tstates, boolean toggle) {
+		level = amp;
+		lastLength = tstates;
+		if (toggle)
+			amp = !amp;
+	}
+
+	private void lowPeriod(int tstates) {
+		lowTime = tstates;
+		stage = STAGE_LOW;
+	}
+
+	private static int milliseconds(int ms) {
+		return ms * (TSTATES_PER_SECOND / 1000);
+	}
+
+	private void startBlock() {
+		if (currentBlock >= numBlocks) {
+			stage = STAGE_END;
+			return;
+		}
+		id = inpbuf[blockStart[currentBlock]];
+		data = blockStart[currentBlock] + 1;
+		currentBlock++;
+		switch (id) {
+			case 0x10:
+				pause = get2(inpbuf, data);
+				datalen = get2(inpbuf, data + 2);
+				data += 4;
+				pilot = inpbuf[data] == 0x00 ? 8064 : 3220;
+				sb_pilot = 2168;
+				sb_sync1 = 667;
+				sb_sync2 = 735;
+				sb_bit0 = 885;
+				sb_bit1 = 1710;
+				lastbyte = 8;
+				stage = STAGE_PILOT;
+				break;
+			case 0x11:
+				sb_pilot = get2(inpbuf, data + 0);
+				sb_sync1 = get2(inpbuf, data + 2);
+				sb_sync2 = get2(inpbuf, data + 4);
+				sb_bit0 = get2(inpbuf, data + 6);
+				sb_bit1 = get2(inpbuf, data + 8);
+				pilot = get2(inpbuf, data + 10);
+				lastbyte = (int)inpbuf[data + 12];
+				pause = get2(inpbuf, data + 13);
+				datalen = get3(inpbuf, data + 15);
+				data += 18;
+				stage = STAGE_PILOT;
+				break;
+			case 0x12:
+				sb_pilot = get2(inpbuf, data + 0);
+				pilot = get2(inpbuf, data + 2);
+				stage = STAGE_PILOT;
+				break;
+			case 0x13:
+				pilot = (int)inpbuf[data + 0];
+				data++;
+				stage = STAGE_PULSES;
+				break;
+			case 0x14:
+				sb_pilot = pilot = sb_sync1 = sb_sync2 = 0;
+				sb_bit0 = get2(inpbuf, data + 0);
+				sb_bit1 = get2(inpbuf, data + 2);
+				lastbyte = (int)inpbuf[data + 4];
+				pause = get2(inpbuf, data + 5);
+				datalen = get3(inpbuf, data + 7);
+				data += 10;
+				stage = STAGE_PILOT;
+				break;
+			case 0x15:
+				sb_pulse = get2(inpbuf, data + 0);
+				pause = get2(inpbuf, data + 2);
+				lastbyte = (int)inpbuf[data + 4];
+				datalen = get3(inpbuf, data + 5);
+				data += 8;
+				datapos = 0;
+				bitcount = 0;
+				stage = STAGE_DIRECT;
+				break;
+			case 0x20:
+				pause = get2(inpbuf, data + 0);
+				amp = false;
+				lowPeriod(milliseconds(pause != 0 ? pause : 5000));
+				break;
+			case 0x23:
+				currentBlock--;
+				analyseID23();
+				currentBlock++;
+				break;
+			case 0x24:
+				currentBlock--;
+				analyseID24();
+				currentBlock++;
+				break;
+			case 0x25:
+				currentBlock--;
+				analyseID25();
+				currentBlock++;
+				break;
+			case 0x26:
+				currentBlock--;
+				analyseID26();
+				currentBlock++;
+				break;
+			case 0x27:
+				currentBlock--;
+				analyseID27();
+				currentBlock++;
+				break;
+			case 0x2A:
+				pulse(milliseconds(5000), false);
+				amp = false;
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void nextDirect() {
+		int length = 0;
+		boolean high = amp;
+		while (datalen > 0) {
+			if (bitcount == 0) {
+				bitcount = datalen != 1 ? 8 : lastbyte;
+				databyte = inpbuf[data + datapos];
+				if (bitcount <= 0) {
+					bitcount = 0;
+					datalen--;
+					datapos++;
+					continue;
+				}
+			}
+			boolean bit = (databyte & 0x80) != 0;
+			if (length > 0 && bit != high)
+				break;
+			high = bit;
+			length += sb_pulse;
+			databyte <<= 1;
+			if (--bitcount == 0) {
+				datalen--;
+				datapos++;
+			}
+		}
+		if (length > 0) {
+			amp = high;
+			pulse(length, false);
+			return;
+		}
+		amp = !amp;
+		stage = STAGE_BLOCK;
+		if (pause != 0)
+			pulse(milliseconds(pause), false);
+	}
+
+	/**
+	 * Checks the header and finds the start positions of all blocks.
+	 *
+	 * @return false on error
+	 */
+	private boolean prepare() {
 		// Sanity checks
 		// ...check input and output
 		if (inpbuf == null || inpbuf.length < 10) {
 			System.out.println("ERR_ILLEGAL_ARGUMENT") ;
-            return null;
+            return false;
 		}
 
 		// ...check for TZX header
 		for (int i = 0; i < ZXTAPE_HEADER.length; i++) {
 			if (inpbuf[i] != ZXTAPE_HEADER[i]) {
 				System.out.println("ERR_NOT_TZX");
-                return null;
+                return false;
 			}
 		}
 
@@ -550,7 +916,7 @@ public class CDT2WAV {
 		int cdt_major = inpbuf[8];
 		if (cdt_major == 0) {
 			System.out.println("ERR_TZX_UNSUPPORTED");
-            return null;
+            return false;
 		}
 
 		// Count blocks
@@ -558,12 +924,23 @@ public class CDT2WAV {
 		numBlocks = countBlocks(null);
 		if (numBlocks < 0) {
 			System.out.println("ERR_TZX_UNSUPPORTED");
-            return null;
+            return false;
 		}
 		
 		// Store the start positions of all blocks
 		blockStart = new int[numBlocks];
 		countBlocks(blockStart);
+		return true;
+	}
+
+	/**
+	 * MAIN CONVERSION ENTRY POINT
+	 * 
+	 * @return array of data bytes generated, or null on error
+	 */
+	public byte[] convert() {
+		if (!prepare())
+			return null;
 
 		// Initialise WAV format output manager, initially in test mode
 		// @note: if you ever need to support a different output format,
@@ -0,0 +1,54 @@
+package jemu.core.device.tape;
+
+/**
+ * Title:        JavaCPC
+ * Description:  TapeSignal of a CDT/TZX file.
+ *
+ * The pulses come from the streaming mode of CDT2WAV and are timed in T-states of
+ * the 3.5MHz clock TZX files are written for.
+ *
+ * @author
+ */
+
+public class CDTSignal extends TapeSignal {
+
+  protected CDT2WAV stream;
+  protected long length = -1;
+
+  /**
+   * @param data CDT/TZX file
+   * @param frequency index units per second
+   */
+  public CDTSignal(byte[] data, int frequency) {
+    super(CDT2WAV.TSTATES_PER_SECOND, frequency, 0);
+    stream = new CDT2WAV(data, frequency);
+    if (!stream.open())
+      throw new IllegalArgumentException("Not a supported CDT/TZX file");
+    rewind();
+  }
+
+  protected void restart() {
+    stream.rewind();
+  }
+
+  protected long nextPeriod() {
+    return stream.nextPulse();
+  }
+
+  protected boolean isPeriodHigh() {
+    return stream.isHigh();
+  }
+
+  protected long getSourceLength() {
+    if (length < 0)
+      length = stream.getLength();
+    return length;
+  }
+
+  public TapeSignal duplicate() {
+    CDTSignal result = (CDTSignal)super.duplicate();
+    result.stream = stream.duplicate();
+    return result;
+  }
+
+}
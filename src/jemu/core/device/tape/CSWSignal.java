@@ -0,0 +1,78 @@
+package jemu.core.device.tape;
+
+/**
+ * Title:        JavaCPC
+ * Description:  TapeSignal of a CSW (compressed square wave) file.
+ *
+ * Version 1 files with RLE compression are read: after the 32 byte header each
+ * byte is the length of a pulse in samples, 0 is followed by a 32 bit length.
+ * Pulses alternate in level starting low, the RLE data stays compressed.
+ *
+ * @author
+ */
+
+public class CSWSignal extends TapeSignal {
+
+  public static final int HEADER_SIZE = 32;
+
+  protected byte[] data;
+  protected int offset;
+  protected boolean periodHigh;
+  protected long length = -1;
+
+  public CSWSignal(byte[] data) {
+    super(getFrequency(data), getFrequency(data), 0);
+    if (data[27] != 1)
+      throw new IllegalArgumentException("Wrong compression format!");
+    this.data = data;
+    rewind();
+  }
+
+  /**
+   * Returns the sample rate of a CSW file.
+   *
+   * @throws IllegalArgumentException when the header is cut short or has no rate
+   */
+  public static int getFrequency(byte[] data) {
+    int result = data.length < HEADER_SIZE ? 0 : (data[25] & 0xff) | (data[26] & 0xff) << 8;
+    if (result == 0)
+      throw new IllegalArgumentException("Not a valid CSW file");
+    return result;
+  }
+
+  protected void restart() {
+    offset = HEADER_SIZE;
+    periodHigh = true;
+  }
+
+  protected long nextPeriod() {
+    if (offset >= data.length)
+      return -1;
+    long result = data[offset++] & 0xff;
+    if (result == 0) {
+      if (offset + 4 > data.length)
+        return -1;
+      result = (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 |
+        (data[offset + 2] & 0xff) << 16 | (long)(data[offset + 3] & 0xff) << 24;
+      offset += 4;
+    }
+    periodHigh = !periodHigh;
+    return result;
+  }
+
+  protected boolean isPeriodHigh() {
+    return periodHigh;
+  }
+
+  protected long getSourceLength() {
+    if (length < 0) {
+      CSWSignal signal = new CSWSignal(data);
+      signal.restart();
+      length = 0;
+      for (long period; (period = signal.nextPeriod()) >= 0; )
+        length += period;
+    }
+    return length;
+  }
+
+}
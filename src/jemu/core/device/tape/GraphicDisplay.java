@@ -35,9 +35,7 @@ private int oldi = 0;
       int divider = 10;
       oldi = 0;
 		for (int i = 0; i < 2500; i = i + divider) {
-            int level = 0;
-            if (CPC.number+(i) < CPC.tapesample.length)
-                level = (CPC.tapesample[CPC.number+(i)])&0xff;
+            int level = CPC.getTapeSample(CPC.number+(i));
             level = level /12;
             page.setColor(Color.GREEN);
             if (level < 255/24)
@@ -18,6 +18,7 @@ import javax.swing.border.*;
 import javax.swing.event.*;
 import jemu.ui.Switches;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
 import jemu.settings.Settings;
 
 public class TapeDeck extends Frame implements WindowListener{
@@ -69,6 +70,53 @@ public class TapeDeck extends Frame implements WindowListener{
       public static int memCount = 0;
       public static JSlider positionslider = new JSlider();
 
+      // Position shown by the next queued update, see showPosition()
+      protected static volatile int shownPosition;
+      protected static final AtomicBoolean positionQueued = new AtomicBoolean();
+      protected static boolean settingPosition;    // Event dispatch thread only
+
+      protected static final Runnable SHOW_POSITION = new Runnable() {
+          public void run() {
+              positionQueued.set(false);
+              setPosition(shownPosition);
+          }
+      };
+
+  /**
+   * Shows the tape position in the slider and the counter. Called every frame from
+   * the emulation thread, so the update is queued for the event dispatch thread and
+   * updates queued before it ran are merged into one.
+   */
+  public static void showPosition(int position) {
+      shownPosition = position;
+      if (positionQueued.compareAndSet(false, true))
+          EventQueue.invokeLater(SHOW_POSITION);
+  }
+
+  /**
+   * Shows a new tape length with the slider at the start, queued like showPosition().
+   */
+  public static void showLength(final int length) {
+      EventQueue.invokeLater(new Runnable() {
+          public void run() {
+              positionslider.setMaximum(length);
+              setPosition(0);
+          }
+      });
+  }
+
+  /**
+   * Moves the slider without moving the tape, the emulation has moved it already.
+   */
+  protected static void setPosition(int position) {
+      settingPosition = true;
+      try {
+          positionslider.setValue(position);
+      } finally {
+          settingPosition = false;
+      }
+  }
+
 public void windowClosing(WindowEvent e) {
     CPC.tapedeck = false;
     this.setVisible(false);
@@ -112,13 +160,14 @@ public void windowIconified(WindowEvent e) {
 
           public void stateChanged (ChangeEvent e) {
              lastValue = positionslider.getValue ();
-             CPC.number = lastValue;
+             if (!settingPosition)
+                 CPC.number = lastValue;
              update++;
              if (update >=3){
                  gfx.paintWAV();
                  update = 0;
              }
-             counter = CPC.number / (2080000 / (byte)CPC.tape_delay);
+             counter = lastValue / (2080000 / (byte)CPC.tape_delay);
       if (TapeDeck.counter <=9999)
           TapeDeck.before = "";
       if (TapeDeck.counter <=999)
@@ -216,6 +265,7 @@ public void windowIconified(WindowEvent e) {
              if (!playing){
                  CPC.number = 0;
                  TapeCounter.setText("000");
+             CPC.closeTapeSignal();
              CPC.tapesample = new byte[0];
              try {
              CPC.tapesample = new byte[(int)Switches.availmem];
@@ -300,6 +350,7 @@ public void windowIconified(WindowEvent e) {
          public void actionPerformed(ActionEvent e) {
              showText();
              if (!buttonpressed){
+                 CPC.closeTapeSignal();
                  CPC.tapesample = new byte[0];
                //  jemu.ui.JEMU.tapeload = true;
                  Settings.set(Settings.TAPE_FILE, "~none~");
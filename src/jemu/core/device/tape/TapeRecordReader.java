@@ -0,0 +1,131 @@
+package jemu.core.device.tape;
+
+/**
+ * Title:        JavaCPC
+ * Description:  Decodes records written by the CPC firmware from a TapeSignal.
+ *
+ * A record is a leader of 1 bits, a 0 bit, a sync byte and the data in segments of
+ * 256 bytes, each followed by its CRC. A bit is two half periods, a 1 bit taking
+ * twice as long as a 0 bit, bytes are sent high bit first. As in the firmware the
+ * bit length is measured on the leader, so any speed the firmware writes is read.
+ * The CRC is CRC-CCITT starting at 0xFFFF and stored inverted, high byte first.
+ *
+ * @author
+ */
+
+public class TapeRecordReader {
+
+  public static final int SEGMENT_SIZE = 256;
+
+  /** Half periods of the leader needed before a record is looked for */
+  protected static final int LEADER = 256;
+
+  protected TapeSignal signal;
+  protected long average;                   // Leader half period, in cycles
+  protected long threshold;                 // Shortest length of a 1 bit
+
+  /**
+   * @param signal tape read from its current position, it is left after the last
+   *               record read
+   */
+  public TapeRecordReader(TapeSignal signal) {
+    this.signal = signal;
+  }
+
+  /**
+   * Reads the next record with a sync byte, skipping records with another one. The
+   * whole of the last segment is read and checked, only length bytes are kept.
+   *
+   * @param sync sync byte of the record
+   * @param data receives the data
+   * @param length bytes to read
+   * @return true if the record was read with correct CRCs, false at the end of the
+   *         tape or when the record found cannot be decoded
+   */
+  public boolean read(int sync, byte[] data, int length) {
+    int value;
+    do {
+      if (!findLeader())
+        return false;
+      value = readByte();
+    } while (value >= 0 && value != (sync & 0xff));
+    if (value < 0)
+      return false;
+    for (int offset = 0; offset < length; offset += SEGMENT_SIZE) {
+      int crc = 0xffff;
+      for (int i = 0; i < SEGMENT_SIZE; i++) {
+        if ((value = readByte()) < 0)
+          return false;
+        if (offset + i < length)
+          data[offset + i] = (byte)value;
+        crc = updateCRC(crc, value);
+      }
+      int high = readByte();
+      int low = readByte();
+      if (high < 0 || low < 0 || (high << 8 | low) != (crc ^ 0xffff))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Looks for a leader followed by the 0 bit in front of the sync byte, and takes
+   * the bit length from it.
+   */
+  protected boolean findLeader() {
+    int count = 0;
+    long sum = 0;
+    for (;;) {
+      long half = signal.skipToEdge();
+      if (half < 0)
+        return false;
+      long mean = count == 0 ? half : sum / count;
+      if (count > 0 && half * 10 < mean * 7) {
+        if (count >= LEADER) {
+          long second = signal.skipToEdge();
+          if (second < 0)
+            return false;
+          if ((half + second) * 4 < mean * 6) {
+            average = mean;
+            threshold = mean * 3 / 2;
+            return true;
+          }
+        }
+        count = 0;
+        sum = 0;
+      }
+      else if (count > 0 && half * 10 > mean * 14) {
+        count = 1;
+        sum = half;
+      }
+      else {
+        count++;
+        sum += half;
+      }
+    }
+  }
+
+  /**
+   * Reads a byte, or returns -1 at the end of the tape or if a bit is too long to
+   * belong to the record.
+   */
+  protected int readByte() {
+    int result = 0;
+    for (int i = 0; i < 8; i++) {
+      long first = signal.skipToEdge();
+      long second = signal.skipToEdge();
+      if (first < 0 || second < 0 || first + second > average * 3)
+        return -1;
+      result = result << 1 | (first + second > threshold ? 1 : 0);
+    }
+    return result;
+  }
+
+  protected static int updateCRC(int crc, int value) {
+    crc ^= value << 8;
+    for (int i = 0; i < 8; i++)
+      crc = (crc & 0x8000) != 0 ? (crc << 1 ^ 0x1021) & 0xffff : crc << 1 & 0xffff;
+    return crc;
+  }
+
+}
@@ -0,0 +1,215 @@
+package jemu.core.device.tape;
+
+/**
+ * Title:        JavaCPC
+ * Description:  A tape as a sequence of level changes timed in CPU cycles.
+ *
+ * Sources give the tape as periods of constant level in their own time unit,
+ * T-states for CDT and samples for CSW and WAV. The end of each period is
+ * converted to CPU cycles from the source time since the start of the tape, so the
+ * rounding of one period never adds up over the next ones. advance() moves the tape
+ * on and is a compare unless an edge is passed, nothing is expanded to samples.
+ *
+ * The tape counter and position slider count in an index, which is the position in
+ * samples at an index rate chosen by the source, plus the size of a header for WAV
+ * files, so index and byte offset agree for them as before.
+ *
+ * @author
+ */
+
+public abstract class TapeSignal implements Cloneable {
+
+  public static final int CYCLES_PER_SECOND = 1000000;
+
+  /** Sample values used for the two levels when there is no recorded sound */
+  public static final byte SAMPLE_LOW  = 0x26;
+  public static final byte SAMPLE_HIGH = (byte)0xDA;
+
+  protected int rate;                       // Source time units per second
+  protected int indexRate;                  // Index units per second
+  protected int indexOffset;                // Index of the start of the tape
+
+  protected long sourceTime;                // Source time to the end of the period
+  protected long start;                     // Cycle the current period starts at
+  protected long edge;                      // Cycle the current period ends at
+  protected long time;                      // Current cycle
+  protected boolean high;
+  protected boolean ended;
+
+  protected TapeSignal(int rate, int indexRate, int indexOffset) {
+    this.rate = rate;
+    this.indexRate = indexRate;
+    this.indexOffset = indexOffset;
+  }
+
+  /**
+   * Returns the source to the start of the tape.
+   */
+  protected abstract void restart();
+
+  /**
+   * Returns the length of the next period in source time units, or -1 at the end of
+   * the tape. The level of the period is returned by isPeriodHigh().
+   */
+  protected abstract long nextPeriod();
+
+  protected abstract boolean isPeriodHigh();
+
+  /**
+   * Returns the length of the tape in source time units.
+   */
+  protected abstract long getSourceLength();
+
+  /**
+   * Returns another signal of the same tape at the same position.
+   */
+  public TapeSignal duplicate() {
+    try {
+      return (TapeSignal)clone();
+    } catch (CloneNotSupportedException e) {
+      throw new InternalError(e);
+    }
+  }
+
+  public void rewind() {
+    restart();
+    sourceTime = start = edge = time = 0;
+    high = ended = false;
+    nextEdge();
+  }
+
+  protected void nextEdge() {
+    while (edge <= time && !ended) {
+      long length = nextPeriod();
+      if (length < 0) {
+        ended = true;
+        high = false;
+        start = edge;
+        edge = Long.MAX_VALUE;
+      }
+      else if (length > 0) {
+        sourceTime += length;
+        start = edge;
+        edge = sourceTime * CYCLES_PER_SECOND / rate;
+        high = isPeriodHigh();
+      }
+    }
+  }
+
+  /**
+   * Moves the tape on.
+   *
+   * @param cycles CPU cycles passed
+   * @return true if the level changed
+   */
+  public boolean advance(int cycles) {
+    time += cycles;
+    if (time < edge)
+      return false;
+    boolean old = high;
+    nextEdge();
+    return high != old;
+  }
+
+  /**
+   * Moves the tape to the next level change.
+   *
+   * @return the cycles passed, or -1 if the tape ended first
+   */
+  public long skipToEdge() {
+    long from = time;
+    boolean level = high;
+    while (!ended && high == level) {
+      time = edge;
+      nextEdge();
+    }
+    return ended ? -1 : time - from;
+  }
+
+  /**
+   * Moves the tape to a cycle. Moving back starts again from the start of the tape.
+   */
+  public void seek(long cycle) {
+    if (cycle < start)
+      rewind();
+    time = Math.max(cycle, 0);
+    nextEdge();
+  }
+
+  public boolean isHigh() {
+    return high;
+  }
+
+  /**
+   * Returns true once the tape has passed its last period.
+   */
+  public boolean isEnded() {
+    return ended;
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Returns the cycles until the level may change next.
+   */
+  public long getCyclesToEdge() {
+    return edge - time;
+  }
+
+  public long getLength() {
+    return getSourceLength() * CYCLES_PER_SECOND / rate;
+  }
+
+  public int getIndex() {
+    return indexOffset + (int)(time * indexRate / CYCLES_PER_SECOND);
+  }
+
+  public void seekIndex(int index) {
+    seek(getCycle(index));
+  }
+
+  /**
+   * Moves the tape to an index, but not back past the start of the current period,
+   * so the tape is never read again from its start. Earlier indexes give the level
+   * of the current period.
+   */
+  public void peekIndex(int index) {
+    seek(Math.max(getCycle(index), start));
+  }
+
+  protected long getCycle(int index) {
+    return ((long)(index - indexOffset) * CYCLES_PER_SECOND + indexRate - 1) / indexRate;
+  }
+
+  public int getIndexLength() {
+    return indexOffset + (int)(getSourceLength() * indexRate / rate);
+  }
+
+  /**
+   * Returns the sample the tape sound is made of at the current position, as a
+   * signed byte of an 8 bit WAV or the high byte of a 16 bit one. Sources without
+   * recorded sound give the level.
+   *
+   * @param channel 0 for the left or only channel, 1 for the right one
+   */
+  public int getSample(int channel) {
+    return high ? SAMPLE_HIGH : SAMPLE_LOW;
+  }
+
+  /**
+   * Renders the whole tape as 8 bit samples, for saving it as WAV.
+   */
+  public byte[] render(int frequency) {
+    TapeSignal signal = duplicate();
+    signal.rewind();
+    byte[] result = new byte[(int)(getLength() * frequency / CYCLES_PER_SECOND)];
+    for (int i = 0; i < result.length; i++) {
+      signal.seek((long)i * CYCLES_PER_SECOND / frequency);
+      result[i] = (byte)signal.getSample(0);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,107 @@
+package jemu.core.device.tape;
+
+/**
+ * Title:        JavaCPC
+ * Description:  TapeSignal of a PCM WAV file.
+ *
+ * The level is bit 7 of the first channel, of the sample for 8 bit files and of
+ * the high byte for 16 bit ones, as the tape input saw it when WAV files were read
+ * sample by sample. Periods are found by scanning the samples as the tape plays.
+ * The samples are kept for the tape sound.
+ *
+ * @author
+ */
+
+public class WAVSignal extends TapeSignal {
+
+  public static final int HEADER_SIZE = 44;
+
+  protected byte[] data;
+  protected int channels;
+  protected int bits;
+  protected int blockAlign;                 // Bytes per sample of all channels
+  protected int count;                      // Samples per channel
+  protected int sample;                     // Next sample to scan
+  protected boolean periodHigh;
+
+  public WAVSignal(byte[] data) {
+    super(getRate(data), getRate(data) * (data[22] * data[34] / 8), HEADER_SIZE);
+    this.data = data;
+    channels = data[22];
+    bits = data[34];
+    blockAlign = channels * bits / 8;
+    count = Math.max(0, Math.min(getDWord(data, 40), data.length - HEADER_SIZE)) / blockAlign;
+    rewind();
+  }
+
+  /**
+   * Returns the sample rate of a PCM WAV file.
+   *
+   * @throws IllegalArgumentException when the header is cut short or can't be played
+   */
+  public static int getRate(byte[] data) {
+    if (data.length < HEADER_SIZE)
+      throw new IllegalArgumentException("WAV file too short");
+    int rate = getDWord(data, 24);
+    int bits = data[34];
+    if (rate <= 0 || rate > CYCLES_PER_SECOND || data[22] <= 0 || bits <= 0 || bits % 8 != 0)
+      throw new IllegalArgumentException("Unsupported WAV format");
+    return rate;
+  }
+
+  protected static int getDWord(byte[] data, int offset) {
+    return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 |
+      (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  public int getBits() {
+    return bits;
+  }
+
+  protected int getByte(int index, int channel) {
+    return data[HEADER_SIZE + index * blockAlign + channel * bits / 8 + bits / 8 - 1];
+  }
+
+  protected void restart() {
+    sample = 0;
+  }
+
+  protected long nextPeriod() {
+    if (sample >= count)
+      return -1;
+    int first = sample;
+    periodHigh = getByte(sample++, 0) < 0;
+    while (sample < count && getByte(sample, 0) < 0 == periodHigh)
+      sample++;
+    return sample - first;
+  }
+
+  protected boolean isPeriodHigh() {
+    return periodHigh;
+  }
+
+  protected long getSourceLength() {
+    return count;
+  }
+
+  /**
+   * The samples are kept, so any index can be peeked at without scanning again.
+   */
+  public void peekIndex(int index) {
+    time = Math.max(getCycle(index), 0);
+    if (time >= edge)
+      nextEdge();
+  }
+
+  public int getSample(int channel) {
+    int index = (int)(time * rate / CYCLES_PER_SECOND);
+    if (index >= count)
+      return 0;
+    return getByte(index, Math.min(channel, channels - 1));
+  }
+
+}
@@ -26,6 +26,13 @@ public class Renderer extends Device {
     pixels = display.getPixels();
   }
 
+  /**
+   * Renders into the given buffer instead of a Display, eg. for benchmarks.
+   */
+  public void setPixels(int[] value) {
+    pixels = value;
+  }
+
   public Display getDisplay() {
     return display;
   }
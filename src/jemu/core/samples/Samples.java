@@ -13,6 +13,7 @@ package jemu.core.samples;
 import java.io.*;
 import java.net.URL;
 import javax.sound.sampled.*;
+import jemu.core.device.Computer;
 
 
 
@@ -53,10 +54,13 @@ public enum Samples {
    public static Volume volume = Volume.HIGH;
 
    // Each sound effect has its own clip, loaded with its own sound file.
+   // No clip is loaded for headless runs or when no audio line is available.
    private Clip clip;
 
    // Constructor to construct each element of the enum with its own sound file.
    Samples(String soundFileName) {
+      if (Computer.isHeadless())
+         return;
       try {
          // Use URL (instead of File) to read from disk and JAR.
          URL url = this.getClass().getClassLoader().getResource(soundFileName);
@@ -72,12 +76,15 @@ public enum Samples {
          e.printStackTrace();
       } catch (LineUnavailableException e) {
          e.printStackTrace();
+      } catch (IllegalArgumentException e) {
+         clip = null;
+         System.out.println("No audio line for " + soundFileName);
       }
    }
 
    // Play or Re-play the sound effect from the beginning, by rewinding.
    public void play() {
-      if (volume != Volume.MUTE) {
+      if (clip != null && volume != Volume.MUTE) {
          if (clip.isRunning())
             clip.stop();   // Stop the player if it is still running
          clip.setFramePosition(0); // rewind to the beginning
@@ -85,7 +92,7 @@ public enum Samples {
       }
    }
    public void loop() {
-      if (volume != Volume.MUTE) {
+      if (clip != null && volume != Volume.MUTE) {
          if (clip.isRunning())
             clip.stop();   // Stop the player if it is still running
          clip.setFramePosition(0); // rewind to the beginning
@@ -94,7 +101,7 @@ public enum Samples {
    }
    
    public void loop2() {
-      if (volume != Volume.MUTE) {
+      if (clip != null && volume != Volume.MUTE) {
          if (!clip.isRunning()){
          clip.setFramePosition(0); // rewind to the beginning
          clip.loop(clip.LOOP_CONTINUOUSLY);     // Start playing
@@ -102,6 +109,8 @@ public enum Samples {
       }
    }
    public void stop() {
+         if (clip == null)
+            return;
          if (clip.isRunning())
             clip.stop();   // Stop the player if it is still running
          clip.setFramePosition(0); // rewind to the beginning
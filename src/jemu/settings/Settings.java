@@ -54,6 +54,8 @@ public class Settings {
   public static final String    COMPUTERNAME    = "computername";
   public static final String    DIGIBLASTER     = "digiblaster";
   public static final String    FLOPPYTURBO     = "floppyturbo";
+  public static final String    TAPEFASTLOAD    = "tapefastload";
+  public static final String    FASTFDC         = "fastfdc";
   public static final String    DBVOLUME        = "digiblaster_volume";
   public static final String    VSOFT          = "vsoft_output";
   public static final String    CPCE95          = "cpce95_output";
@@ -97,6 +99,9 @@ public class Settings {
   /** Property for choosen system (String). */
   public static final String    SYSTEM          = "system";
   public static final String    VOLUME          = "volume";
+  public static final String    AUDIO16         = "audio_16bit";
+  public static final String    AUDIORATE       = "audio_samplerate";
+  public static final String    AUDIOLATENCY    = "audio_latency";
   public static final String    MONITOR         = "monitor";
   public static final String    BRIGHTNESS        = "brightness";
   public static final String    JOYSTICK        = "joystick";
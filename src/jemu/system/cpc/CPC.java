@@ -51,7 +51,7 @@ public class CPC extends Computer{
     public static boolean changeBorder = false;
     int mp3count = 0;
     String mp3name="";
-        Frame mp3 = new Frame();
+        Frame mp3 = isHeadless() ? null : new Frame();
         JButton conv = new JButton("Reading MP3...");
     public static int bitrate = 8;
     public Converter mp3c = new Converter();
@@ -86,12 +86,41 @@ public static boolean Bypass = false;
     public static String    loadtape;
     protected int           portB                           = 0;
     public static byte[]    tapesample;
+    public static TapeSignal tapesignal, tapepeek;          // Tape read from its level changes, null for recordings
+    protected static int    tapeindex;                      // number when tapesignal was last moved
+    protected static final int TAPE_SILENCE                 = 500000;   // Cycles without an edge skipped in warp
+    // Entry of the firmware routine reading a tape record in the 464 and the
+    // 664/6128 lower ROM, followed by the first bytes of the routine
+    protected static final int[][] TAPE_READ_TRAPS         = {
+        { 0x2836, 0xcd, 0x73, 0x28, 0xf5, 0x21, 0xb8, 0x28 },
+        { 0x29a6, 0xcd, 0xe3, 0x29, 0xf5, 0x21, 0x28, 0x2a }
+    };
+    // Polling loops of AMSDOS and PARADOS, then of AMSDOS Plus, moving the data of
+    // READ DATA and WRITE DATA, from the poll of the main status register on
+    protected static final int[][] DISC_READ_TRAPS         = {
+        { 0xc6e5, 0xed, 0x78, 0xf2, 0xe5, 0xc6, 0xe6, 0x20, 0x20, 0xf1, 0xc9 },
+        { 0xc6ec, 0xed, 0x78, 0xf2, 0xec, 0xc6, 0xe6, 0x20, 0x20, 0xf1, 0xc9 }
+    };
+    protected static final int[][] DISC_WRITE_TRAPS        = {
+        { 0xc6f5, 0xed, 0x78, 0xf2, 0xf5, 0xc6, 0xe6, 0x20, 0x20, 0xf1, 0xc9 },
+        { 0xc6fc, 0xed, 0x78, 0xf2, 0xfc, 0xc6, 0xe6, 0x20, 0x20, 0xf1, 0xc9 }
+    };
+    // Millisecond delay AMSDOS times steps and the head settling with, then the same
+    // in AMSDOS Plus
+    protected static final int[][] DISC_DELAY_TRAPS        = {
+        { 0xc7e0, 0xf5, 0x3e, 0xf6, 0x3d, 0x20, 0xfd, 0xf1, 0x3d, 0x20, 0xf6, 0xc9 },
+        { 0xc80c, 0xf5, 0x3e, 0xf6, 0x3d, 0x20, 0xfd, 0xf1, 0x3d, 0x20, 0xf6, 0xc9 }
+    };
+    // Start of the AMSDOS ticker waiting for the motor, DE = frames to wait
+    protected static final int[][] DISC_MOTOR_TRAPS        = {
+        { 0xc99d, 0xcd, 0xcd, 0xc9, 0x3a, 0x5f, 0xbe, 0xb7, 0x28, 0xfa }
+    };
     protected boolean       tapeEnabled                     = true;
     public int              tapesound , tapesoundb                      = 0;
     public static boolean   playing, savecheck, stoptape,
                             relay, rec, rew, play, ffwd,
                             tapedeck                        = false;
-    public static TapeDeck  TapeDrive                       = new TapeDeck();
+    public static TapeDeck  TapeDrive                       = isHeadless() ? null : new TapeDeck();
 
     // YM Player/recorder variables
 
@@ -99,8 +128,7 @@ public static boolean Bypass = false;
     public boolean          YM_Interleaved      = false;
     public static int       YM_registers        = 16;
     public static boolean   oldYM               = false;
-    public int[]            YM_Data             = new int[1000000];
-    public int[]            YM_DataInterleaved  = new int[1000000];
+    public YMBuffer         YM_Data             = new YMBuffer();
     public static int       ymcount             = 0;
     public static int       YM_RecCount         = 0;
     public static int       YM_vbl              = 0;
@@ -242,7 +270,7 @@ public static boolean Bypass = false;
     public CPCDiscImage dskImageC;
     public CPCDiscImage dskImageD;
 
-    JFrame dummyB = new JFrame();
+    JFrame dummyB = isHeadless() ? null : new JFrame();
     protected GridBagConstraints gbcConstraints   = null;
 
     String[] Palette = new String[33];
@@ -305,7 +333,21 @@ public static boolean Bypass = false;
 
   protected String             lowerROM          = null;
   protected Hashtable          upperROMs         = new Hashtable();
-  protected Z80                z80               = new Z80(CYCLES_PER_SECOND_CPC);
+  protected Z80                z80               = LegacyZ80.isSelected() ?
+    new LegacyZ80(CYCLES_PER_SECOND_CPC) {
+      @Override
+      protected int fetchOpCode() {
+        instructionTrap();
+        return super.fetchOpCode();
+      }
+    } :
+    new Z80(CYCLES_PER_SECOND_CPC) {
+      @Override
+      protected int fetchOpCode() {
+        instructionTrap();
+        return super.fetchOpCode();
+      }
+    };
   public static CPCMemory          memory            = null;                                                      // new
   // CPCMemory(CPCMemory.TYPE_512K);
   protected Basic6845          crtc              = (Basic6845) addDevice(new Basic6845());
@@ -335,7 +377,8 @@ public static boolean Bypass = false;
   protected String CPCname ="";
   public CPC(Applet applet, String name) {
     super(applet, name);
-    final Dimension d = Toolkit.getDefaultToolkit().getScreenSize();
+    if (mp3 != null) {
+        final Dimension d = Toolkit.getDefaultToolkit().getScreenSize();
         mp3.add(conv);
         conv.setFocusable(false);
         conv.setEnabled(false);
@@ -344,8 +387,11 @@ public static boolean Bypass = false;
         mp3.setAlwaysOnTop(true);
         mp3.setLocation((d.width - mp3.getSize().width) / 2, (d.height - mp3.getSize().height) / 2);
         mp3.setVisible(false);
+    }
     initCPCType(name);
     z80.setMemoryDevice(memory);
+    if (CodeCache.isSelected())
+      z80.setCodeCache(new CodeCache(memory));
     z80.addInputDeviceMapping(new DeviceMapping(memory, 0x0101, 0x0000));  // Emulator detection
     z80.addOutputDeviceMapping(new DeviceMapping(memory, 0x2000, 0x0000)); // ROM Select
     z80.setInterruptDevice(gateArray);
@@ -562,7 +608,7 @@ public static boolean Bypass = false;
     begincount = 0;
     YM_Minutes = 0;
     YM_Seconds = 0;
-    YMControl.YM_Counter.setText(" 00:00\"00 ");
+    YMControl.setCounter(" 00:00 ");
     String romNum;
     String romName;
     if (lowerROM != null){
@@ -594,9 +640,8 @@ public static boolean Bypass = false;
 
   @Override
   public void reset() {
-      if (!recordKeys){
+      if (!recordKeys && !replayReset){
       playKeys = false;
-      keyNumber = 0;
       recordKeys = false;
       }
       
@@ -624,13 +669,30 @@ public static boolean Bypass = false;
     Switches.blockKeyboard = false;
     autotyper = 0;
     stop();
+    resetMachine();
+    start();
+  }
+
+  /**
+   * Resets the emulated hardware while the emulation is stopped. A keyboard
+   * recording or playback in progress restarts from here.
+   */
+  protected void resetMachine() {
     super.reset();
     fdc.reset();
     memory.reset();
     reSync();
     z80.reset();
       gateArray.init();
-    start();
+    if (recordKeys || playKeys)
+        gateArray.resetCounters();
+    if (recordKeys)
+        keyStroke.clear();
+    else if (playKeys)
+        keyStroke.rewind();
+    replayReset = false;
+    keyStart = z80.getCycles();
+    keyReads = 0;
   }
 
   public void setInks(){
@@ -649,18 +711,22 @@ public static boolean Bypass = false;
     int drive = getCurrentDrive();
     if (drive == 0){
         checkDF0();
+        compactJournal(dskImageA);
         dskImageA = null;
       df0mod = false;}
     if (drive == 1){
         checkDF1();
+        compactJournal(dskImageB);
         dskImageB = null;
       df1mod = false;}
     if (drive == 2){
         checkDF2();
+        compactJournal(dskImageC);
         dskImageC = null;
       df2mod = false;}
     if (drive == 3){
         checkDF3();
+        compactJournal(dskImageD);
         dskImageD = null;
       df3mod = false;}
     if (Switches.FloppySound && Switches.audioenabler == 1)
@@ -678,6 +744,12 @@ public static boolean Bypass = false;
     }
   }
 
+  // Rewrites the file of a disc leaving its drive with the sectors in its journal
+  protected static void compactJournal(CPCDiscImage image) {
+      if (image != null)
+          image.compactJournal();
+  }
+
   @Override
   public void dispose() {
     super.dispose();
@@ -686,8 +758,23 @@ public static boolean Bypass = false;
 
   @Override
   public void cycle() {
+      cycle(1);
+  }
+
+  /**
+   * Called once per Z80 timing step with the number of microseconds it takes. The
+   * checks which depend on the processor state only are done once per step, the
+   * devices then catch up one after another: nothing they do is seen by the Z80
+   * before the step has ended.
+   */
+  @Override
+  public void cycle(int count) {
       if (Switches.breakinsts && z80.getPC() != 0 && (PEEK(z80.getPC()-1) == 0xED && PEEK(z80.getPC()) == 0xFF)){
-          jemu.ui.JEMU.debugthis.setSelected(true);
+          EventQueue.invokeLater(new Runnable() {
+            public void run() {
+              jemu.ui.JEMU.debugthis.setSelected(true);
+            }
+          });
           Samples.BREAKI.play();
           z80.stop();
       }
@@ -701,16 +788,21 @@ public static boolean Bypass = false;
           start();
 
       if ((relay && play) || (trueaudio && play))
-          tapeCycle();
+          for (int i = 0; i < count; i++)
+              tapeCycle();
 
       if (FDCReset){
           fdc.resetb();
           FDCReset = false;
       }
-      gateArray.cycle();
-      fdc.cycle();
-      if ((audioCount += audioAdd / Switches.turbo) >= AUDIO_TEST) {
-          psg.writeAudio();
+      for (int i = 0; i < count; i++)
+          gateArray.cycle();
+      fdc.cycle(count);
+      // nothing writes the PSG during the step, so its samples are made in one go
+      audioCount += audioAdd / Switches.turbo * count;
+      while (audioCount >= AUDIO_TEST) {
+          if (!Switches.warp)
+              psg.writeAudio();
           audioCount -= AUDIO_TEST;
       }
   }
@@ -894,7 +986,7 @@ public static boolean Bypass = false;
             Samples.RELAIS.play();
             if (play && !trueaudio)
             Samples.TAPEMOTOR.loop();
-            if (ffwd && number >= (tapesample.length -1000))
+            if (ffwd && number >= (getTapeLength() -1000))
             Samples.WINDMOTOR.loop();
             if (rew && number <=1000)
             Samples.REWINDMOTOR.loop();
@@ -912,7 +1004,7 @@ public static boolean Bypass = false;
   }
 
   public void tapeCycle(){
-      if (!TapeDrive.paused){
+      if (TapeDrive == null || !TapeDrive.paused){
       if (tapeloaded){
           if (!rec){
             playcount++;
@@ -920,15 +1012,18 @@ public static boolean Bypass = false;
             doLoad++;
             if (number >=10)
                 doLoad = 2000001;
-              if (doLoad >= 2000000 && playcount > tape_delay){
+              if (doLoad >= 2000000 && tapesignal != null)
+                  tapeSignalCycle();
+              else if (doLoad >= 2000000 && playcount > tape_delay){
                   if (Switches.floppyturbo && Switches.turbo == 1)
                       Switches.turbo = 2;
-                  if (number >= tapesample.length){
+                  if (number >= getTapeLength()){
                       play = false;
                       Samples.TAPEMOTOR.stop();
                       Samples.TAPESTOP.play();
-                      TapeDrive.btnPLAY.setBackground(Color.DARK_GRAY);
-                      TapeDrive.btnPLAY.setBorder(new BevelBorder(BevelBorder.RAISED));
+                      if (TapeDrive != null) {
+                          showTapeButton(TapeDrive.btnPLAY, false, Color.DARK_GRAY);
+                      }
                       number--;
                       number--;
                       playcount = 0;
@@ -972,49 +1067,12 @@ public static boolean Bypass = false;
 
                   if (!trueaudio)
                       tapesoundb = tapesound;
-                  if (Switches.FloppySound){
-
-                      if (Switches.turbo == 1){
-                          psg.digicount = 10;
-                          if (psg.readRegister(7)!=0x3f && (psg.readRegister(8)!=0 || psg.readRegister(9)!=0 || psg.readRegister(10)!=0))
-                              psg.digiblast = false;
-                          else
-                              psg.digiblast = true;
-                          psg.blasterA =  tapesound;
-                          psg.blasterB =  tapesoundb;
-                      } else {
-                          turbocount++;
-                          if (turbocount == 20){
-                              turbocount = 0;
-                              psg.digicount = 1;
-                           if (psg.readRegister(7)!=0x3f && (psg.readRegister(8)!=0 || psg.readRegister(9)!=0 || psg.readRegister(10)!=0))
-                              psg.digiblast = false;
-                          else
-                              psg.digiblast = true;
-                              psg.blasterA =  tapesound;
-                              psg.blasterB =  tapesound;
-                              TapeDrive.WAVBYTE = tapesound;
-                          }
-                      }
-                  }
+                  tapeBlaster();
                   if (Switches.changePolarity)
                   portB = ~portB^0x80;
                   else
                   portB = portB^0x80;
-                  if (portB < 0x030)
-                      Display.tape = 1;
-                  if (changeBorder || trueaudio){
-                      if (portB >0x020 && portB<=0x090)
-                          setBorder(28);
-                      if (portB >0x090 && portB<=0x0a0)
-                          setBorder(12);
-                      if (portB >0x0a0 && portB<=0x0b0)
-                          setBorder(14);
-                      if (portB >0x0b0)
-                          setBorder(3);
-                      if (portB <=0x020)
-                          setBorderBlack();
-                  }
+                  tapeBorder();
               }
           }
       }
@@ -1035,10 +1093,10 @@ public static boolean Bypass = false;
                       rec = false;
                       Samples.TAPEMOTOR.stop();
                       Samples.TAPESTOP.play();
-                      TapeDrive.btnPLAY.setBackground(Color.DARK_GRAY);
-                      TapeDrive.btnPLAY.setBorder(new BevelBorder(BevelBorder.RAISED));
-                      TapeDrive.btnREC.setBackground(new Color(0xff,0x00,0x00));
-                      TapeDrive.btnREC.setBorder(new BevelBorder(BevelBorder.RAISED));
+                      if (TapeDrive != null) {
+                          showTapeButton(TapeDrive.btnPLAY, false, Color.DARK_GRAY);
+                          showTapeButton(TapeDrive.btnREC, false, new Color(0xff,0x00,0x00));
+                      }
                       number--;
                       playcount = 0;
                   }
@@ -1049,13 +1107,291 @@ public static boolean Bypass = false;
       }
   }
 
+  /**
+   * Passes the tape sound to the PSG blaster.
+   */
+  protected void tapeBlaster(){
+      if (Switches.FloppySound){
+
+          if (Switches.turbo == 1){
+              psg.digicount = 10;
+              if (psg.readRegister(7)!=0x3f && (psg.readRegister(8)!=0 || psg.readRegister(9)!=0 || psg.readRegister(10)!=0))
+                  psg.digiblast = false;
+              else
+                  psg.digiblast = true;
+              psg.blasterA =  tapesound;
+              psg.blasterB =  tapesoundb;
+          } else {
+              turbocount++;
+              if (turbocount == 20){
+                  turbocount = 0;
+                  psg.digicount = 1;
+               if (psg.readRegister(7)!=0x3f && (psg.readRegister(8)!=0 || psg.readRegister(9)!=0 || psg.readRegister(10)!=0))
+                  psg.digiblast = false;
+              else
+                  psg.digiblast = true;
+                  psg.blasterA =  tapesound;
+                  psg.blasterB =  tapesound;
+                  if (TapeDrive != null)
+                      TapeDrive.WAVBYTE = tapesound;
+              }
+          }
+      }
+  }
+
+  /**
+   * Shows the tape level in the border.
+   */
+  protected void tapeBorder(){
+      if (portB < 0x030)
+          Display.tape = 1;
+      if (changeBorder || trueaudio){
+          if (portB >0x020 && portB<=0x090)
+              setBorder(28);
+          if (portB >0x090 && portB<=0x0a0)
+              setBorder(12);
+          if (portB >0x0a0 && portB<=0x0b0)
+              setBorder(14);
+          if (portB >0x0b0)
+              setBorder(3);
+          if (portB <=0x020)
+              setBorderBlack();
+      }
+  }
+
+  /**
+   * Plays one cycle of a tape read through tapesignal. The input level follows the
+   * signal to the cycle, the sound, border and counter are updated every tape_delay
+   * cycles as for recordings.
+   */
+  protected void tapeSignalCycle(){
+      if (number != tapeindex)
+          tapesignal.seekIndex(number);         // Moved by REW, FF or the slider
+      else if (Switches.warp && tapesignal.getCyclesToEdge() > TAPE_SILENCE)
+          tapesignal.seek(tapesignal.getTime() + tapesignal.getCyclesToEdge() - TAPE_SILENCE / 2);
+      if (tapesignal.advance(1))
+          portB = getTapeLevel(tapesignal.getSample(0));
+      tapeindex = number;
+      if (playcount <= tape_delay)
+          return;
+      playcount = 0;
+      if (Switches.floppyturbo && Switches.turbo == 1)
+          Switches.turbo = 2;
+      if (tapesignal.isEnded()){
+          play = false;
+          Samples.TAPEMOTOR.stop();
+          Samples.TAPESTOP.play();
+          if (TapeDrive != null) {
+              showTapeButton(TapeDrive.btnPLAY, false, Color.DARK_GRAY);
+          }
+          number = tapeindex = getTapeLength() - 2;
+          tapesignal.seekIndex(number);
+          return;
+      }
+      number = tapeindex = tapesignal.getIndex();
+      int sample = tapesignal.getSample(0);
+      if (trueaudio){
+          tapesound = bitrate > 8 ? sample : sample^0x80;
+          tapesoundb = tapesound;
+          if (tape_stereo){
+              tapesoundb = tapesignal.getSample(1);
+              if (bitrate <= 8)
+                  tapesoundb ^= 0x80;
+          }
+      }
+      else
+          tapesound = tapesoundb = (((sample)*(Switches.Blastervolume / 5))/100);
+      tapeBlaster();
+      portB = getTapeLevel(sample);
+      tapeBorder();
+  }
+
+  /**
+   * Instruction boundary for the tape fast load and the fast FDC, called before
+   * each opcode fetch.
+   */
+  protected void instructionTrap() {
+      if (Switches.tapefastload && tapesignal != null)
+        tapeTrap();
+      if (Switches.fastfdc)
+        discTrap();
+  }
+
+  /**
+   * Reads a tape record in one go when the firmware routine reading records is
+   * entered, which CAS READ, CAS IN OPEN and CAS IN CHAR all go through. Records
+   * the decoder can't read are left to the routine, which then reads them from
+   * the tape signal as before, so custom loaders and damaged tapes still load.
+   */
+  protected void tapeTrap(){
+      if (!play || rec || !memory.isLowerEnabled())
+          return;
+      int pc = z80.getPC();
+      for (int i = 0; i < TAPE_READ_TRAPS.length; i++) {
+          int[] trap = TAPE_READ_TRAPS[i];
+          if (pc != trap[0])
+              continue;
+          for (int j = 1; j < trap.length; j++)
+              if (memory.readByte(pc + j - 1) != trap[j])
+                  return;
+          // HL = address, DE = length (0 for 64K), A = sync byte
+          int address = z80.getRegisterValue(3);
+          int length = z80.getRegisterValue(5) == 0 ? 0x10000 : z80.getRegisterValue(5);
+          byte[] data = new byte[length];
+          TapeSignal signal = tapesignal.duplicate();
+          if (!new TapeRecordReader(signal).read(z80.getRegisterValue(1) >> 8, data, length))
+              return;
+          for (int j = 0; j < length; j++)
+              memory.writeByte((address + j) & 0xffff, data[j]);
+          tapesignal = signal;
+          number = tapeindex = signal.getIndex();
+
+          // Leave as the routine does after a good read: A = 0 with Z and carry
+          // set, IX past the data, interrupts enabled again
+          z80.setAF(0x0045);
+          z80.setIX((address + length) & 0xffff);
+          z80.setIFF1(true);
+          z80.setIFF2(true);
+          ret();
+          return;
+      }
+  }
+
+  /**
+   * Shortens the waits of the disc ROM for the fast FDC. Delays timing the steps
+   * and the head settling return at once, the motor is up to speed after one frame
+   * instead of a second, and the data of a sector moves in one go when the ROM
+   * polls the FDC for it.
+   */
+  protected void discTrap(){
+      int pc = z80.getPC();
+      if (isTrap(DISC_DELAY_TRAPS, pc)) {
+          // Leave as the delay does: A = 0 from DEC A
+          z80.setAF(0x0042 | (z80.getRegisterValue(1) & 0x01));
+          ret();
+      }
+      else if (isTrap(DISC_MOTOR_TRAPS, pc)) {
+          if (z80.getRegisterValue(5) > 1)
+              z80.setDE(1);
+      }
+      else if (isTrap(DISC_READ_TRAPS, pc))
+          discTransfer(true);
+      else if (isTrap(DISC_WRITE_TRAPS, pc))
+          discTransfer(false);
+  }
+
+  /**
+   * In the fast mode the FDC has a byte ready at every poll, so the polling loop is
+   * run here with the same port accesses, and left as it returns once the execution
+   * phase ends. If the FDC is not ready the loop is left to the Z80.
+   */
+  protected void discTransfer(boolean read){
+      int address = z80.getRegisterValue(3);
+      for (;;) {
+          int status = fdc.readPort(0);
+          if ((status & 0x80) == 0) {
+              z80.setHL(address);
+              return;
+          }
+          if ((status & 0x20) == 0)
+              break;
+          if (read)
+              memory.writeByte(address, fdc.readPort(1));
+          else
+              fdc.writePort(1, memory.readByte(address));
+          address = (address + 1) & 0xffff;
+      }
+      // Leave as the loop does: A = 0 from AND &20, HL past the data
+      z80.setAF(0x0054);
+      z80.setHL(address);
+      ret();
+  }
+
+  /**
+   * Returns from the routine a trap has run instead of the Z80.
+   */
+  protected void ret(){
+      int sp = z80.getSP();
+      z80.setPC(memory.readByte(sp) | memory.readByte((sp + 1) & 0xffff) << 8);
+      z80.setSP((sp + 2) & 0xffff);
+  }
+
+  /**
+   * Returns true if pc is the address of one of the traps and memory there holds
+   * the bytes following it.
+   */
+  protected static boolean isTrap(int[][] traps, int pc){
+      for (int i = 0; i < traps.length; i++) {
+          int[] trap = traps[i];
+          if (pc != trap[0])
+              continue;
+          for (int j = 1; j < trap.length; j++)
+              if (memory.readByte(pc + j - 1) != trap[j])
+                  return false;
+          return true;
+      }
+      return false;
+  }
+
+  /**
+   * Returns the value of portB for a tape sample.
+   */
+  protected int getTapeLevel(int sample){
+      if (Switches.changePolarity)
+          return ~sample^0x80;
+      else
+          return sample^0x80;
+  }
+
+  /**
+   * Returns the length of the tape in bytes, for tapes read through tapesignal the
+   * length of their index.
+   */
+  public static int getTapeLength() {
+      TapeSignal signal = tapesignal;
+      return signal != null ? signal.getIndexLength() : tapesample.length;
+  }
+
+  /**
+   * Returns an unsigned byte of the tape for the tape display, 0 past the end.
+   * The display never moves tapepeek back, number lags the signal by up to
+   * tape_delay cycles and REW moves it back every frame.
+   */
+  public static int getTapeSample(int index) {
+      TapeSignal peek = tapepeek;
+      if (peek != null) {
+          if (index >= peek.getIndexLength())
+              return 0;
+          peek.peekIndex(index);
+          return peek.getSample(0) & 0xff;
+      }
+      return index < tapesample.length ? tapesample[index] & 0xff : 0;
+  }
+
+  /**
+   * Starts playing a tape through its level changes.
+   */
+  protected static void openTapeSignal(TapeSignal signal) {
+      tapesignal = signal;
+      tapepeek = signal.duplicate();
+      tapeindex = 0;
+  }
+
+  /**
+   * Drops the tape signal, called whenever tapesample gets other content.
+   */
+  public static void closeTapeSignal() {
+      tapesignal = tapepeek = null;
+  }
+
   public void TapeCheck(){
     if (tapeloaded){
       if (rew){
           if (TapeDeck.isMem && (TapeDeck.memCount >= TapeDeck.counter)){
               System.out.println("Tape REW stopped");
-              TapeDrive.btnREW.setBorder(new BevelBorder(BevelBorder.RAISED));
-              TapeDrive.btnREW.setBackground(Color.DARK_GRAY);
+              if (TapeDrive != null) {
+                  showTapeButton(TapeDrive.btnREW, false, Color.DARK_GRAY);
+              }
               play = false;
               rew = false;
               Samples.TAPEMOTOR.stop();
@@ -1082,8 +1418,9 @@ public static boolean Bypass = false;
       if (ffwd){
           if (TapeDeck.isMem && (TapeDeck.memCount <= TapeDeck.counter)){
               System.out.println("Tape FF stopped");
-              TapeDrive.btnFF.setBorder(new BevelBorder(BevelBorder.RAISED));
-              TapeDrive.btnFF.setBackground(Color.DARK_GRAY);
+              if (TapeDrive != null) {
+                  showTapeButton(TapeDrive.btnFF, false, Color.DARK_GRAY);
+              }
               play = false;
               ffwd = false;
               Samples.TAPEMOTOR.stop();
@@ -1092,16 +1429,17 @@ public static boolean Bypass = false;
               if (Switches.FloppySound)
                   Samples.TAPESTOP.play();
           }
-          if (number <= (tapesample.length-25000))
+          int length = getTapeLength();
+          if (number <= (length-25000))
               number = number + 25000;
           else
-          if (number <= (tapesample.length-2500))
+          if (number <= (length-2500))
               number = number + 2500;
           else
-          if (number <= (tapesample.length-1000))
+          if (number <= (length-1000))
               number = number + 300;
-          if (number >= (tapesample.length - 800)){
-              number = tapesample.length-4;
+          if (number >= (length - 800)){
+              number = length-4;
               play = false;
               ffwd = false;
               Samples.TAPEMOTOR.stop();
@@ -1120,8 +1458,9 @@ public static boolean Bypass = false;
           TapeDeck.before = "00";
       if (TapeDeck.counter <=9)
           TapeDeck.before = "000";
-      TapeDeck.TapeCounter.setText(TapeDeck.before + TapeDeck.counter);
-      TapeDeck.positionslider.setValue(number);
+      if (tapesignal != null && !rew && !ffwd)
+          tapepeek = tapesignal.duplicate();    // The display starts where the tape plays
+      TapeDeck.showPosition(number);            // The slider shows the counter as well
   }
 
   public void StopTape(){
@@ -1134,12 +1473,47 @@ public static boolean Bypass = false;
                   Switches.turbo = 1;
               }
             System.out.println("Tape-relay off");
-            TapeDrive.showText();
+            if (TapeDrive != null)
+                showTapeText();
             if (Switches.FloppySound && !Bypass){
             Samples.RELAISOFF.play();
             Samples.TAPEMOTOR.stop();
             }
   }
+
+  /**
+   * Shows a tape deck button pressed or released. Mostly called from the emulation
+   * thread, so the change is queued for the event dispatch thread.
+   */
+  protected static void showTapeButton(final JButton button, final boolean pressed, final Color color) {
+    EventQueue.invokeLater(new Runnable() {
+      public void run() {
+        button.setBorder(new BevelBorder(pressed ? BevelBorder.LOWERED : BevelBorder.RAISED));
+        button.setBackground(color);
+      }
+    });
+  }
+
+  protected static void showTapeText() {
+    showTapeText(null);
+  }
+
+  /**
+   * Shows text in the tape deck, or its default text for null. Queued for the
+   * event dispatch thread like showTapeButton().
+   */
+  protected static void showTapeText(final String text) {
+    EventQueue.invokeLater(new Runnable() {
+      public void run() {
+        if (TapeDrive == null)
+          return;
+        if (text == null)
+          TapeDrive.showText();
+        else
+          TapeDrive.showText(text);
+      }
+    });
+  }
 public static void Download (String download){
     System.out.println("Downloading " + download +"...");
     String ending = download.substring((download.length()-4), download.length());
@@ -1192,7 +1566,14 @@ public void reSync(){
           try{
               Switches.loaded=false;
           loadFile(0, downstring);
-          UpdateInfo.pane.setPage(Oldpage);
+          EventQueue.invokeLater(new Runnable() {
+            public void run() {
+              try {
+                UpdateInfo.pane.setPage(Oldpage);
+              }
+              catch (Exception error) {}
+            }
+          });
           if (shouldBoot)
               bootDisk();
           }
@@ -1211,15 +1592,17 @@ public void reSync(){
       }
       if (tapestarttimer >=1){
           Switches.blockKeyboard = true;
-          TapeDrive.buttonpressed = true;
+          if (TapeDrive != null)
+              TapeDrive.buttonpressed = true;
           tapestarttimer++;
 
           if (tapestarttimer >=56){
               tapestarttimer = 0;
              // hidetape = true;
               play = true;
-              TapeDrive.btnPLAY.setBorder(new BevelBorder(BevelBorder.LOWERED));
-              TapeDrive.btnPLAY.setBackground(Color.BLACK);
+              if (TapeDrive != null) {
+                  showTapeButton(TapeDrive.btnPLAY, true, Color.BLACK);
+              }
               if (CPCname.equals("CPC464T") || CPCname.equals("KCcomp"))
                   AutoType("RUN\"\n\n\n");
               else
@@ -1251,6 +1634,11 @@ public void reSync(){
                 AutoSave(3);
       }
       if (saveOnExit == 10){
+          compactJournal(dskImageA);
+          compactJournal(dskImageB);
+          compactJournal(dskImageC);
+          compactJournal(dskImageD);
+          CPCDiscImage.waitForSaves();
           if (relay){
               if (Switches.FloppySound && !Bypass){
                   Samples.RELAISOFF.play();
@@ -1345,9 +1733,14 @@ public void reSync(){
           if (Switches.turbo >=2)
           Switches.turbo++;
       }
-    if (frameSkip == 0)
-      display.updateImage(true);
-    syncProcessor(psg.getSoundPlayer());
+    if (display != null) {
+      if (frameSkip == 0)
+        display.updateImage(false);
+      if (Switches.warp)
+        warpSync(4.0);
+      else
+        syncProcessor(psg.getSoundPlayer());
+    }
     if (!YM_Play){
     typeAuto();
     joyReader();
@@ -1537,30 +1930,50 @@ public void reSync(){
   }
 
   public static boolean recordKeys, playKeys = false;
-  protected int keyNumber, totalKeyNumber;
-  protected byte keyStroke[] = new byte[11000000];
+  protected InputLog keyStroke = new InputLog();
+  protected int keyRow = 0;
+  protected boolean keyCycles = true;       // Log is keyed by cycles since reset, else by reads
+  protected long keyStart, keyReads = 0;
+  protected boolean replayReset = false;    // The next reset starts a playback
 
 
+  /**
+   * Resets the computer and records keyboard input from there. Reads are logged
+   * against the cycles since the reset, so playing the recording back after a reset
+   * repeats the run exactly, at any speed. Joystick input and AutoType reach the
+   * emulation through the keyboard matrix and are recorded with it.
+   */
   public void recordKeys(){
-      totalKeyNumber = 0;
-      keyNumber = 0;
       playKeys = false;
       recordKeys = true;
+      keyCycles = true;
+      reset();
   }
 
   public void playKeys(){
-      playKeys = true;
       recordKeys = false;
-      keyNumber = 0;
+      if (keyCycles){
+          replayReset = true;
+          playKeys = true;
+          reset();
+      }
+      else {
+          keyReads = 0;
+          keyStroke.rewind();
+          playKeys = true;
+      }
   }
   public void stopKeys(){
       if (recordKeys){
-          totalKeyNumber = keyNumber;
+          recordKeys = false;
           SNK_Save();
       }
       playKeys = false;
       recordKeys = false;
-      keyNumber = 0;
+  }
+
+  protected long getKeyTime() {
+      return keyCycles ? z80.getCycles() - keyStart : keyReads++;
   }
 
   @Override
@@ -1578,33 +1991,22 @@ public void reSync(){
           break;
 
       case PSG_PORT_A: {
-          if (recordKeys){
-              keyStroke[keyNumber] = (byte)keyboarda.readSelectedRow();
-              keyNumber++;
-              if (keyNumber>=10000000){
-                  keyNumber=0;
-              recordKeys = false;
-              System.out.println("Recording stopped... Buffer full");
-              }
-          }
           if (playKeys){
-              result = keyStroke[keyNumber];
-              keyNumber++;
-              if (keyNumber>=totalKeyNumber){
+              long time = getKeyTime();
+              result = keyStroke.play(time, keyRow);
+              if (keyStroke.isFinished(time + 1)){
                   System.out.println("Playback finished");
-                  keyNumber=0;
                   playKeys=false;
               }
               break;
-          } else
-          if (Switches.blockKeyboard) {
-              result = keyboarda.readSelectedRow();
-              break;
           }
-          else {
+          if (Switches.blockKeyboard)
+              result = keyboarda.readSelectedRow();
+          else
               result = getKeyboard().readSelectedRow();
-              break;
-          }
+          if (recordKeys)
+              keyStroke.record(getKeyTime(), keyRow, result);
+          break;
       }
       default:
           throw new RuntimeException("Unexpected Port Read: " + Util.hex((short)port));
@@ -1619,6 +2021,7 @@ public void reSync(){
 
       case PPI_PORT_C:
           psg.setBDIR_BC2_BC1(PSG_VALUES[value >> 6],ppi.readOutput(PPI8255.PORT_A));
+          keyRow = value & 0x0f;
           
           if (Switches.blockKeyboard){
               keyboarda.setSelectedRow(value & 0x0f);
@@ -1828,6 +2231,9 @@ public void reSync(){
 
   protected static final String SNA_HEADER                             = "MV - SNA";
   protected static final String SNK_HEADER                             = "MV - SNK";
+  protected static final int    SNK_FORMAT                             = 16;    // 0: a byte per read
+  protected static final int    SNK_EVENTS                             = 1;     // InputLog, by reads
+  protected static final int    SNK_CYCLES                             = 2;     // InputLog, by cycles since reset
   protected static final String SNK_EYECATCHER                         = "JavaCPC Keyboard" +
                                                                          "   record file  ";
   protected              String BIN_HEADER                             = "JAVACPC BIN";
@@ -1903,6 +2309,13 @@ public void reSync(){
       Switches.name = name;
       if (!Switches.loaded)
           System.out.println("opening: " + name);
+    CPCDiscImage mapped = webstart ? null : CPCDiscImage.map(name);
+    if (mapped != null) {
+        DSK_Load(name, mapped);
+        System.out.println("Loading mapped DSK file...");
+        reSync();
+        return;
+    }
     byte[] data = getFile(name);
     if (SNA_HEADER.equals(new String(data, 0, SNA_HEADER.length()).toUpperCase())){
         SNA_Load(name, data);
@@ -1997,56 +2410,70 @@ public void reSync(){
           freq = 11025;
       if (!Switches.khz11 && !Switches.khz44)
           freq = 22050;
-      System.out.println("Converting CDT to " + freq + "hz WAV...");
+      System.out.println("Playing CDT at " + freq + "hz...");
       System.out.println("CDT size is:" + data.length);
       isCDT = true;
       Switches.booter = 0;
 
-      tapesample = null;
-      CDT2WAV cdt2wav = new CDT2WAV(data, freq);
-      tapesample = cdt2wav.convert();
-      if (tapesample == null) {
-    	  tapesample = new byte[0]; // avoid tapesample being null
+      // The pulses are generated as the tape plays, tapesample stays empty
+      closeTapeSignal();
+      tapesample = new byte[0];
+      try {
+          openTapeSignal(new CDTSignal(data, freq));
+      } catch (IllegalArgumentException e) {
+          System.err.println(e.getMessage());
       }
-      cdt2wav.dispose();
 
       tape_delay = 1050000/(freq);
       number = 0;
       play = true;
       if (Switches.FloppySound && !tapeloaded)
           Samples.TAPEINSERT.play();
-      TapeDrive.btnPLAY.setBorder(new BevelBorder(BevelBorder.LOWERED));
-      TapeDrive.btnPLAY.setBackground(Color.BLACK);
-      TapeDrive.buttonpressed = true;
+      if (TapeDrive != null) {
+          showTapeButton(TapeDrive.btnPLAY, true, Color.BLACK);
+          TapeDrive.buttonpressed = true;
+      }
       tapeloaded = true;
-      recordcount = tapesample.length;
-      TapeDeck.positionslider.setMaximum(recordcount);
-        TapeDeck.positionslider.setValue(0);
-        System.out.println("Tape size is:" + tapesample.length+" bytes");
+      recordcount = getTapeLength();
+      TapeDeck.showLength(recordcount);
+        System.out.println("Tape size is:" + recordcount+" bytes");
 
-                 TapeDrive.showText(name.toUpperCase());
+                 if (TapeDrive != null)
+                     showTapeText(name.toUpperCase());
     reSync();
   }
 
   public void DSK_Load(String name, byte[] data) throws Exception {
-      Switches.booter = 0;
-      CPCDiscImage image = new CPCDiscImage(name, data);
       System.out.println("data length:" + data.length);
+      DSK_Load(name, new CPCDiscImage(name, data));
+  }
+
+  public void DSK_Load(String name, CPCDiscImage image) throws Exception {
+      Switches.booter = 0;
+      image.replayJournal();
       int drive = getCurrentDrive();
       if (drive == 0) {
         checkDF0();
+      if (dskImageA != image)
+          compactJournal(dskImageA);
       dskImageA = image;
       df0mod = false;}
       if (drive == 1) {
         checkDF1();
+      if (dskImageB != image)
+          compactJournal(dskImageB);
       dskImageB = image;
       df1mod = false;}
       if (drive == 2) {
         checkDF2();
+      if (dskImageC != image)
+          compactJournal(dskImageC);
       dskImageC = image;
       df2mod = false;}
       if (drive == 3) {
         checkDF3();
+      if (dskImageD != image)
+          compactJournal(dskImageD);
       dskImageD = image;
       df3mod = false;}
      // fdc.setDrive(drive, floppies[drive] = new Drive(drive == 0 ? 1 : 2));
@@ -2073,10 +2500,23 @@ public void reSync(){
 
   public void SNK_Load(String name, byte[] data){
       Switches.booter = 1;
-      totalKeyNumber = getDWord(data, 20);
-      System.arraycopy(data, 0x100, keyStroke, 0, totalKeyNumber);
+      long totalKeyNumber = getDWord(data, 20) & 0xffffffffL;
+      keyCycles = data[SNK_FORMAT] == SNK_CYCLES;
+      if (keyCycles)
+          totalKeyNumber |= (long)getDWord(data, 28) << 32;
+      if (data[SNK_FORMAT] == SNK_EVENTS || keyCycles)
+          keyStroke.setEvents(data, 0x100, getDWord(data, 24), totalKeyNumber);
+      else
+          keyStroke.setRaw(data, 0x100, (int)totalKeyNumber);
     System.out.println("Length is " + totalKeyNumber);
-      playKeys();
+      if (keyCycles){
+          // Called with the emulation stopped, which is how resetMachine() wants it
+          recordKeys = false;
+          playKeys = true;
+          resetMachine();
+      }
+      else
+          playKeys();
   }
 
   public void SNA_Load(String name, byte[] data){
@@ -2145,6 +2585,25 @@ public void reSync(){
 
       byte[] mem = memory.getMemory();
       System.arraycopy(data, 0x100, mem, 0, memSize);
+      memory.invalidateCode();
+  }
+
+  protected byte[] getSNKHeader(){
+    byte[] data = new byte[0x0100];
+    try {
+      System.arraycopy(SNK_HEADER.getBytes("UTF-8"), 0, data, 0, SNK_HEADER.length());
+    }
+        catch (final Exception iox) {}
+    try {
+      System.arraycopy(SNK_EYECATCHER.getBytes("UTF-8"), 0, data, 0xe0, SNK_EYECATCHER.length());
+    }
+        catch (final Exception iox) {}
+    System.out.println("Length is " + keyStroke.getEnd());
+      data[SNK_FORMAT] = (byte)(keyCycles ? SNK_CYCLES : SNK_EVENTS);
+      putDWord(data,20,(int)keyStroke.getEnd());
+      putDWord(data,24,keyStroke.getEventLength());
+      putDWord(data,28,(int)(keyStroke.getEnd() >> 32));
+      return data;
   }
 
   public void SNK_Save(){
@@ -2160,18 +2619,7 @@ public void reSync(){
            String savename = filename;
         File file = new File(savename);
 
-    byte[] data = new byte[0x0100+totalKeyNumber];
-    try {
-      System.arraycopy(SNK_HEADER.getBytes("UTF-8"), 0, data, 0, SNK_HEADER.length());
-    }
-        catch (final Exception iox) {}
-    try {
-      System.arraycopy(SNK_EYECATCHER.getBytes("UTF-8"), 0, data, 0xe0, SNK_EYECATCHER.length());
-    }
-        catch (final Exception iox) {}
-    System.out.println("Length is " + totalKeyNumber);
-      putDWord(data,20,totalKeyNumber);
-      System.arraycopy(keyStroke,0,data,0x0100, totalKeyNumber);
+    byte[] data = getSNKHeader();
       try{
           Thread.sleep(200);
       }
@@ -2184,6 +2632,7 @@ if (Switches.uncompressed)
                         savename=savename + ".snk";
       final BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file + savename));
 	   	bos.write(data);
+      keyStroke.write(bos);
       bos.close();
     } catch (final IOException iox) {
       System.out.println("can't write to file ");
@@ -2199,6 +2648,7 @@ else {
       gzip_out_stream =
         new GZIPOutputStream (new BufferedOutputStream (out));
       gzip_out_stream.write (data, 0, data.length);
+      keyStroke.write (gzip_out_stream);
       gzip_out_stream.close ();
     }
     catch (IOException e) {
@@ -2384,6 +2834,13 @@ filedia.dispose();
 
 
   public void tape_WAV_save(String filename){
+      if (tapesignal != null && tapesample.length == 0){
+          // Saving needs the whole tape rendered, at the rate the header is written for
+          int freq = Switches.khz44 ? 44100 : Switches.khz11 ? 11025 : 22050;
+          tapesample = tapesignal.render(freq);
+          recordcount = tapesample.length;
+          closeTapeSignal();
+      }
       if (fromCapture){
           fromCapture = false;
           Switches.khz44 = true;
@@ -3237,40 +3694,22 @@ try{
                   YM_Minutes++;
               }
           }
-          String minutes = "" + YM_Minutes;
-          if (YM_Minutes <=9)
-              minutes = "0" + minutes;
-          String seconds = "" + YM_Seconds;
-          if (YM_Seconds <=9)
-              seconds = "0" + seconds;
-          String milliseconds = "" + (vcount*2);
-          if (vcount <=4)
-              milliseconds = "0" + milliseconds;
-          
-          YMControl.doYMDisplay(minutes, seconds, milliseconds,
-                  "recording...", minutes, seconds);
-          
+          YMControl.doYMDisplay(YM_Minutes, YM_Seconds, "recording...", null, null);
+
           for (int i = 0; i < 16; i++){
               if (i == 13){
                   if (psg.registerUpdated())
-                      YM_Data[ymcount]=psg.readRegister(i);
+                      YM_Data.set(ymcount, psg.readRegister(i));
                   else
-                      YM_Data[ymcount]=0x0ff;
+                      YM_Data.set(ymcount, 0x0ff);
               }
-              else {
-                  YM_Data[ymcount]=psg.readRegister(i);
-              }
-              if (i == 14 || i == 15)
-                  YM_Data[ymcount]=0x00;
+              else if (i == 14 || i == 15)
+                  YM_Data.set(ymcount, 0x00);
+              else
+                  YM_Data.set(ymcount, psg.readRegister(i));
               ymcount++;
               YM_RecCount++;
           }
-
-          if (ymcount >= 999980){
-              System.out.println("Recording stopped... Buffer full!");
-              YM_Rec = false;
-              ymcount=0;
-          }
           YM_vbl++;
           psg.resetUpdated();
       }
@@ -3296,25 +3735,16 @@ try{
       }
       //System.out.println("playing..." + minutes + ":" + seconds);
       }
-          String minutes = "" + YM_Minutes;
-          if (YM_Minutes <=9)
-              minutes = "0" + minutes;
-          String seconds = "" + YM_Seconds;
-          if (YM_Seconds <=9)
-              seconds = "0" + seconds;
-          String milliseconds = "" + (vcount*2);
-          if (vcount <=4)
-              milliseconds = "0" + milliseconds;
-          YMControl.doYMDisplay(minutes, seconds, milliseconds, YMtitle, YMauthor, YMcreator);
+          YMControl.doYMDisplay(YM_Minutes, YM_Seconds, YMtitle, YMauthor, YMcreator);
 
       if (YM_RecCount >=1){
           for (int i = 0; i < YM_registers; i++){
               if (i == 13){
-                  if (YM_Data[ymcount] != 0x0ff)
-                      psg.setRegister(i, YM_Data[ymcount]);
+                  if (YM_Data.get(ymcount) != 0x0ff)
+                      psg.setRegister(i, YM_Data.get(ymcount));
               }
               else {
-                  psg.setRegister(i, YM_Data[ymcount]);
+                  psg.setRegister(i, YM_Data.get(ymcount));
               }
               ymcount++;
 
@@ -3327,7 +3757,7 @@ try{
               YM_Minutes = 0;
               YM_Seconds = 0;
               ymcount = 0;
-              YMControl.YM_Counter.setText(" 00:00\"00 ");
+              YMControl.setCounter(" 00:00 ");
           }
       }
       else{
@@ -3359,7 +3789,7 @@ try{
       YM_Minutes = 0;
       YM_Seconds = 0;
       ymcount = 0;
-      YMControl.YM_Counter.setText(" 00:00\"00 ");
+      YMControl.setCounter(" 00:00 ");
       if (loadname.startsWith("http://") || loadname.startsWith("www.")){
           if (loadname.startsWith("www."))
               loadname = "http://" + loadname;
@@ -3380,6 +3810,7 @@ try{
       spectrum_mode = false;
       YM_Interleaved = false;
         File file = new File(loadname);
+        YMBuffer interleaved = new YMBuffer();
         int ym_read_byte = 0;
         try{
             final BufferedInputStream bos = new BufferedInputStream(new FileInputStream(file));
@@ -3468,10 +3899,10 @@ try{
 
             if (shouldcount){
                 if (!YM_Interleaved){
-                    YM_Data[YM_RecCount] = ym_read_byte;
+                    YM_Data.set(YM_RecCount, ym_read_byte);
                     YM_RecCount++;
                 } else {
-                    YM_DataInterleaved[YM_RecCount] = ym_read_byte;
+                    interleaved.set(YM_RecCount, ym_read_byte);
                     YM_RecCount++;
                 }
             }
@@ -3484,14 +3915,14 @@ try{
             YM_vbl = YM_RecCount / YM_registers;
           //  YM_Play=true;
 
-          YMControl.YM_Counter.setText(" 00:00\"00 ");
+          YMControl.setCounter(" 00:00 ");
             ymcount = 0;
             if (YM_Interleaved){
                 int counted = 0;
                 for (int jk=0; jk<YM_registers; jk++){
                     for (int ik=0; ik<YM_RecCount/YM_registers; ik++)
                     {
-                        YM_Data[(ik*YM_registers)+jk] = YM_DataInterleaved[counted];
+                        YM_Data.set((ik*YM_registers)+jk, interleaved.get(counted));
                         counted++;
                     }
                 }
@@ -3631,16 +4062,9 @@ else {
 }
       // write data (YM_Interleaved)
       if (YM_Interleaved)
-     for (int j=0; j<YM_registers; j++){
-          for (int i=0; i<YM_RecCount/YM_registers; i++)
-          {
-              bos.write(YM_Data[(i*YM_registers)+j]);
-          }
-      }
+          YM_Data.writeInterleaved(bos, YM_registers, YM_RecCount/YM_registers);
       else
-          for (int j=0; j<=YM_RecCount; j++){
-              bos.write(YM_Data[j]);
-          }
+          YM_Data.write(bos, YM_RecCount + 1);    // One value more, as always written
       // write endheader
       if (!oldYM){
           String EndYM = "End!";
@@ -3694,12 +4118,21 @@ else {
             tape_stereo = false;
         bitrate = 8;
       tapeloaded = false;
-      TapeDrive.showText(loadname.toUpperCase());
+      if (TapeDrive != null)
+          showTapeText(loadname.toUpperCase());
         isCDT = false;
         number = 0;
         doLoad = 0;
         jemu.ui.JEMU.isTape = true;
+        closeTapeSignal();
         tapesample = null;
+        try {
+            WAVSignal.getRate(data);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            tapesample = new byte[0];
+            return;
+        }
         tapesample = data;
         int tapelength = getDWord(tapesample, 40);
         int frequency = getDWord(tapesample, 24);
@@ -3720,29 +4153,36 @@ else {
             return;
         }
         tapesample = getFile(loadname, tapelength);
+        try {
+            openTapeSignal(new WAVSignal(tapesample));
+        } catch (RuntimeException e) {
+            System.err.println("Unsupported WAV format");
+        }
         System.out.println("Stream has " + frequency + " hz, "
                  + tapelength + " bytes, " + channels + " channels, "
                   + bits + " bits");
         play = true;
-        TapeDrive.btnPLAY.setBorder(new BevelBorder(BevelBorder.LOWERED));
-        TapeDrive.btnPLAY.setBackground(Color.BLACK);
-        TapeDrive.buttonpressed = true;
-        TapeDeck.positionslider.setValue(0);
+        if (TapeDrive != null) {
+            showTapeButton(TapeDrive.btnPLAY, true, Color.BLACK);
+            TapeDrive.buttonpressed = true;
+        }
       if (Switches.FloppySound && !tapeloaded)
           Samples.TAPEINSERT.play();
         tapeloaded = true;
         recordcount = tapesample.length;
-      TapeDeck.positionslider.setMaximum(recordcount);
+      TapeDeck.showLength(recordcount);
     reSync();
 }
 
     public void tapeEject(){
-       TapeDrive.showText("No tape inserted...");
+       if (TapeDrive != null)
+           showTapeText("No tape inserted...");
+        closeTapeSignal();
         tapesample = new byte[0];
         Settings.set(Settings.TAPE_FILE, "~none~");
         Settings.setBoolean(Settings.LOADTAPE , false);
-        TapeDeck.positionslider.setValue(0);
-        TapeDeck.positionslider.setMaximum(0);
+        number = 0;
+        TapeDeck.showLength(0);
       if (Switches.FloppySound)
           Samples.TAPEEJECT.play();
     }
@@ -3804,16 +4244,18 @@ else {
         tapeloaded = false;
        tape_stereo = false;
         bitrate = 8;
+      closeTapeSignal();
       tapesample = null;
 
-      int length = data.length;
-      int frequency = getWord(data, 25);
-      if (data[27]!=1){
-          System.err.println("Wrong compression format!");
+      CSWSignal signal;
+      try {
+          signal = new CSWSignal(data);
+      } catch (IllegalArgumentException e) {
+          System.err.println(e.getMessage());
           return;
       }
+      int frequency = CSWSignal.getFrequency(data);
 
-      int polarity = 0x7F + data[28] % 2;
       boolean odd = ((data[28]+2) % 2 == 0);
       String pol = "positive";
       if (odd)
@@ -3838,57 +4280,26 @@ else {
       System.out.println("CSW loaded.");
       System.out.println("polarity  = "+ pol);
       System.out.println("frequency = " + frequency);
-      int size = 0;
-      //loop1
-      int i = 32;
-      while (i < length){
-          int a = data[i++] & 0xff;
-          if (a == 0){
-              a=data[i++]+(data[i++]<<8) +(data[i++]<<16) +(data[i++]<<24);
-          }
-          while (a-- > 0){
-              size++;
-          }
-      }
-      //size +=300000;
-      tapesample = new byte[size];
-      //loop2
-      int tapecount = 0;
-      i = 32;
-      while (i < length){
-          int a = data[i++] & 0xff;
-          if (a == 0){
-              a=data[i++] +(data[i++]<<8) +(data[i++]<<16) +(data[i++]<<24);
-          }
-          if (!odd)
-          polarity = 0xff - polarity;
-          while (a-- > 0){
-              tapesample[tapecount] = (byte)(polarity^0x80);
-              if (tapesample[tapecount] == 0)
-                  tapesample[tapecount] = (byte)0xda;
-              else
-                  tapesample[tapecount] = (byte)0x26;
-              tapecount++;
-          }
-          if(odd)
-          polarity = 0xff - polarity;
-      }
+      // The pulses are read from the RLE data as the tape plays, tapesample stays empty
+      tapesample = new byte[0];
+      openTapeSignal(signal);
+      number = 0;
       play = true;
-        TapeDrive.btnPLAY.setBorder(new BevelBorder(BevelBorder.LOWERED));
-        TapeDrive.btnPLAY.setBackground(Color.BLACK);
-        TapeDrive.buttonpressed = true;
-        TapeDeck.positionslider.setValue(0);
+        if (TapeDrive != null) {
+            showTapeButton(TapeDrive.btnPLAY, true, Color.BLACK);
+            TapeDrive.buttonpressed = true;
+        }
       if (Switches.FloppySound && !tapeloaded)
           Samples.TAPEINSERT.play();
         tapeloaded = true;
-        recordcount = tapesample.length;
-      TapeDeck.positionslider.setMaximum(recordcount);
-      TapeDeck.positionslider.setValue(0);
+        recordcount = getTapeLength();
+      TapeDeck.showLength(recordcount);
   }
 
 public void MP3Load(String name){
     mp3name = name;
-        mp3.setVisible(true);
+        if (mp3 != null)
+            mp3.setVisible(true);
         mp3count = 1;
 }
 public void MP3Load(){
@@ -3897,7 +4308,8 @@ public void MP3Load(){
         bitrate = 8;
         mp3c.convert(mp3name, "buffer.wav");
         loadFile(0,"buffer.wav");
-        mp3.setVisible(false);
+        if (mp3 != null)
+            mp3.setVisible(false);
     }
     catch (Exception error){
         System.out.println(error.getMessage());
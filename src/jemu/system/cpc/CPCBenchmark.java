@@ -0,0 +1,241 @@
+package jemu.system.cpc;
+
+import jemu.core.device.Computer;
+import jemu.core.device.Device;
+import jemu.util.Benchmark;
+
+/**
+ * Title:        JEMU
+ * Description:  Micro benchmarks for the CPC: Z80 instruction mixes, the Gate Array
+ *               scan lines, AY sound synthesis, the FDC and DSK parsing.
+ *
+ * Usage: java jemu.system.cpc.CPCBenchmark [-filter prefix] [-baseline file] [-save file]
+ *                                           [-legacyz80] [-translate]
+ *
+ * -legacyz80 computes the Z80 flags the way they were computed before the flag
+ * tables, save a run with it and use it as the baseline of a run without it.
+ * -translate runs the CPC with the operands of its code decoded in a CodeCache,
+ * compare it the same way. It only changes cpc.frame, the z80.* benchmarks have
+ * no CPCMemory.
+ *
+ * Run from the directory containing system/ so the ROMs and blankdisk.dsk are found.
+ *
+ * @author
+ * @version 1.0
+ */
+
+public class CPCBenchmark {
+
+  // LD HL,#4000; LD B,0; loop: LD A,(HL); ADD A,B; XOR #55; RLCA; LD (HL),A; INC HL;
+  // PUSH HL; POP DE; ADC HL,DE; EX DE,HL; BIT 3,A; DJNZ loop; JP #0100
+  protected static final int[] ALU_MIX = {
+    0x21, 0x00, 0x40, 0x06, 0x00, 0x7e, 0x80, 0xee, 0x55, 0x07, 0x77, 0x23,
+    0xe5, 0xd1, 0xed, 0x5a, 0xeb, 0xcb, 0x5f, 0x10, 0xf0, 0xc3, 0x00, 0x01
+  };
+
+  // LD HL,#4000; LD DE,#8000; LD BC,#4000; LDIR; JP #0100
+  protected static final int[] LDIR_COPY = {
+    0x21, 0x00, 0x40, 0x11, 0x00, 0x80, 0x01, 0x00, 0x40, 0xed, 0xb0, 0xc3, 0x00, 0x01
+  };
+
+  protected static CPC cpc;
+
+  public static void main(String[] args) throws Exception {
+    System.setProperty("java.awt.headless", "true");
+    String filter = null;
+    String baseline = null;
+    String save = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equalsIgnoreCase("-filter"))
+        filter = args[++i];
+      else if (args[i].equalsIgnoreCase("-baseline"))
+        baseline = args[++i];
+      else if (args[i].equalsIgnoreCase("-save"))
+        save = args[++i];
+      else if (args[i].equalsIgnoreCase("-legacyz80"))
+        System.setProperty(LegacyZ80.PROPERTY, "true");
+      else if (args[i].equalsIgnoreCase("-translate"))
+        System.setProperty(CodeCache.PROPERTY, "true");
+    }
+    cpc = (CPC)Computer.createComputer(null, "CPC6128");
+    cpc.initialise();
+    try {
+      Benchmark.runAll(new Benchmark[] {
+        new Z80Benchmark("z80.alu", ALU_MIX),
+        new Z80Benchmark("z80.ldir", LDIR_COPY),
+        new ScanLineBenchmark("ga.line.full", false, 0),
+        new ScanLineBenchmark("ga.line.half", true, 0),
+        new ScanLineBenchmark("ga.line.border", false, 1),
+        new ScanLineBenchmark("ga.line.fullStart", false, 2),
+        new ScanLineBenchmark("ga.line.fullEnd", false, 3),
+        new ScanLineBenchmark("ga.line.halfStart", true, 2),
+        new ScanLineBenchmark("ga.line.halfEnd", true, 3),
+        new AudioBenchmark("ay.writeAudio"),
+        new FDCBenchmark("fdc.cycle"),
+        new DiscImageBenchmark("dsk.parse"),
+        new FrameBenchmark("cpc.frame")
+      }, filter, baseline, save);
+    } finally {
+      cpc.dispose();
+    }
+  }
+
+  /**
+   * Runs Z80.step() on a standalone processor with flat 64K RAM and no devices,
+   * one operation is one instruction.
+   */
+  protected static class Z80Benchmark extends Benchmark {
+
+    protected int[] code;
+    protected Z80 z80;
+
+    public Z80Benchmark(String name, int[] code) {
+      super(name);
+      this.code = code;
+    }
+
+    public void setUp() {
+      final byte[] ram = new byte[0x10000];
+      for (int i = 0; i < code.length; i++)
+        ram[0x0100 + i] = (byte)code[i];
+      z80 = LegacyZ80.isSelected() ? new LegacyZ80(4000000) : new Z80(4000000);
+      z80.setMemoryDevice(new Device("Flat RAM") {
+        public int readByte(int address) {
+          return ram[address] & 0xff;
+        }
+        public int writeByte(int address, int value) {
+          return ram[address] = (byte)value;
+        }
+      });
+      z80.setCycleDevice(new Device("Idle") { });
+      z80.reset();
+      z80.setPC(0x0100);
+    }
+
+    public void run(int ops) {
+      for (; ops > 0; ops--)
+        z80.step();
+    }
+
+  }
+
+  /**
+   * Renders one character (16 or 8 pixels) per operation through the GateArray scan
+   * line, drawn every 48 characters. Kind 0 is the display, 1 border, 2 start and
+   * 3 end of line.
+   */
+  protected static class ScanLineBenchmark extends Benchmark {
+
+    protected boolean half;
+    protected int kind;
+    protected GateArray ga;
+    protected int first;
+    protected int last;
+
+    public ScanLineBenchmark(String name, boolean half, int kind) {
+      super(name);
+      this.half = half;
+      this.kind = kind;
+    }
+
+    public void setUp() {
+      ga = cpc.gateArray;
+      ga.setPixels(new int[768 * 272]);
+      ga.setHalfSize(half);
+      for (int i = 0; i < 0x4000; i++)
+        CPC.POKE(0xc000 + i, i * 7);
+      ga.show = kind == 1 ? GateArray.BORDER : GateArray.SCREEN;
+      first = kind == 2 ? ga.charWidth / 2 : 0;
+      last = kind == 3 ? ga.charWidth / 2 : ga.charWidth;
+    }
+
+    public void run(int ops) {
+      for (; ops > 0; ops--) {
+        if (ga.lineLength == 48) {
+          if (ga.offset > 767 * 272 - 48 * 16)
+            ga.offset = 0;
+          ga.flushLine();
+        }
+        ga.addChar(first, last);
+      }
+    }
+
+  }
+
+  /**
+   * One AY_3_8910.writeAudio() per operation, all three channels and noise playing.
+   */
+  protected static class AudioBenchmark extends Benchmark {
+
+    public AudioBenchmark(String name) {
+      super(name);
+    }
+
+    public void setUp() {
+      int[] regs = { 0x40, 0x01, 0x80, 0x02, 0xc0, 0x00, 0x10, 0x30, 0x0f, 0x0c, 0x10, 0x00, 0x08, 0x0e };
+      for (int i = 0; i < regs.length; i++)
+        cpc.psg.setRegister(i, regs[i]);
+    }
+
+    public void run(int ops) {
+      for (; ops > 0; ops--)
+        cpc.psg.writeAudio();
+    }
+
+  }
+
+  /**
+   * One UPD765A.cycle() per operation on an idle controller.
+   */
+  protected static class FDCBenchmark extends Benchmark {
+
+    public FDCBenchmark(String name) {
+      super(name);
+    }
+
+    public void run(int ops) {
+      for (; ops > 0; ops--)
+        cpc.fdc.cycle();
+    }
+
+  }
+
+  /**
+   * Parses system/cpc/file/blankdisk.dsk into a CPCDiscImage once per operation.
+   */
+  protected static class DiscImageBenchmark extends Benchmark {
+
+    protected byte[] data;
+
+    public DiscImageBenchmark(String name) {
+      super(name);
+    }
+
+    public void setUp() {
+      data = cpc.getFile("system/cpc/file/blankdisk.dsk");
+    }
+
+    public void run(int ops) {
+      for (; ops > 0; ops--)
+        new CPCDiscImage("blankdisk.dsk", data);
+    }
+
+  }
+
+  /**
+   * Runs the whole machine for one 50Hz frame (20000 cycles) per operation. As in
+   * headless batch runs no Display is attached, so nothing is rendered.
+   */
+  protected static class FrameBenchmark extends Benchmark {
+
+    public FrameBenchmark(String name) {
+      super(name);
+    }
+
+    public void run(int ops) {
+      cpc.runFor(ops * 20000L);
+    }
+
+  }
+
+}
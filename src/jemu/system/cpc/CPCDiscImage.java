@@ -9,14 +9,28 @@
 
 package jemu.system.cpc;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.*;
 
-import jemu.core.device.Device;
 import jemu.core.device.floppy.DiscImage;
 import jemu.core.device.floppy.UPD765A;
 import jemu.ui.Switches;
@@ -33,8 +47,6 @@ public class CPCDiscImage extends DiscImage {
 
   private static       String         SAVED_DSK            = "";
 
-  private static final String         WIN_APE_EYECATCHER   = "Win APE 32 1.0";
-
   private static final String         MV_CPC_EYECATCHER    = "MV - CPC";
 
   private static final String         EXTENDED_EYECATCHER  = "EXTENDED";
@@ -55,6 +67,18 @@ public class CPCDiscImage extends DiscImage {
 
   private static final int[]          AMSDOS_SECTOR_IDS    = { 0xC1, 0xC3, 0xC5, 0xC7, 0xC9, 0xC2, 0xC4, 0xC6, 0xC8 };
 
+  /** extension of the sector journal kept beside a save file until it has been fully written. */
+  private static final String         JOURNAL              = ".jnl";
+
+  /** writes full images in the background, one at a time. */
+  private static final ExecutorService SAVER               = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(final Runnable r) {
+      final Thread thread = new Thread(r, "DSK saver");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
   /** new image or loaded? */
   private final boolean               newImage;
 
@@ -89,9 +113,24 @@ public class CPCDiscImage extends DiscImage {
   /** extended DISK format? (Revision 5) */
   private final boolean               extended;
 
-  /** the tracks. */
+  /** the tracks, <code>null</code> until read from the index. */
   private final CPCDiscImageTrack[][] tracks;
 
+  /** track index of a loaded image, <code>null</code> once all tracks are read. */
+  private CPCDiscImageIndex           index;
+
+  /** DSK file the image was mapped from, changed sectors are written back into it. */
+  private File                        source;
+
+  /** number of the latest save written to the journal or handed to the saver thread. */
+  private int                         saveGeneration;
+
+  /** file holding the image as last written in full, its journal holds the sectors saved since. */
+  private File                        compacted;
+
+  /** bytes in the journal since the image was last written in full. */
+  private long                        journalLength;
+
   /**
    * Creates a new instance of CPCDiscImage.
    *
@@ -104,6 +143,40 @@ public class CPCDiscImage extends DiscImage {
     return new CPCDiscImage(name, load(is));
   }
 
+  /**
+   * Maps a DSK file from the local file system instead of reading it through a
+   * stream first. Saving the image to the same file later only writes the
+   * sectors that have changed.
+   *
+   * @param name file name
+   * @return the disc image or <code>null</code> when the file is no plain DSK image
+   */
+  public static CPCDiscImage map(final String name) {
+    final File file = new File(name);
+    if (!name.toLowerCase().endsWith(".dsk") || !file.isFile() || file.length() < 0x100) {
+      return null;
+    }
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        final ByteBuffer data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        final String id = CPCDiscImageIndex.getString(data, 0, 0x22).toUpperCase();
+        if (!id.startsWith(EXTENDED_EYECATCHER) && !id.startsWith(MV_CPC_EYECATCHER)) {
+          return null;
+        }
+        final CPCDiscImage image = new CPCDiscImage(name, data, file);
+        image.source = file.getAbsoluteFile();
+        image.compacted = image.source;
+        return image;
+      } finally {
+        raf.close();
+      }
+    } catch (final IOException iox) {
+      System.out.println("can't map file " + name + ": " + iox.getMessage());
+      return null;
+    }
+  }
+
   /**
    * Create an empty AMSDOS disc image.
    *
@@ -143,80 +216,50 @@ public class CPCDiscImage extends DiscImage {
    * @param data image data
    */
   public CPCDiscImage(String name, byte[] data) {
-    super(name);
-    this.newImage = false;
-    this.discId = new String(data, 0, 0x22);
-    this.creator = new String(data, 0x22, 0x0E);
-    this.numberOfTracks = data[0x30] & 0xff;
+    this(name, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Creates a new instance of CPCDiscImage.
+   *
+   * @param name file name
+   * @param data image data, a heap buffer
+   */
+  protected CPCDiscImage(String name, ByteBuffer data) {
+    this(name, data, null);
+  }
+
+  /**
+   * Creates a new instance of CPCDiscImage.
+   *
+   * @param name file name
+   * @param data image data, a heap or a mapped buffer
+   * @param file file the data is mapped from, <code>null</code> for heap data
+   */
+  protected CPCDiscImage(String name, ByteBuffer data, File file) {
+    this(name, new CPCDiscImageIndex(data, file));
     Switches.numberOfTracks = numberOfTracks;
     System.out.println("Numberof tracks is:" + numberOfTracks);
-    this.numberOfSides = data[0x31] & 0xff;
-    this.sizeOfTrack = Device.getWord(data, 0x32);
-    this.extended = this.discId.toUpperCase().startsWith(EXTENDED_EYECATCHER);
-    final boolean isCpcDisc = this.extended || this.discId.toUpperCase().startsWith(MV_CPC_EYECATCHER);
-    final boolean winape = this.creator.equalsIgnoreCase(WIN_APE_EYECATCHER);
+  }
 
+  /**
+   * Creates a new instance of CPCDiscImage. Only the disc information is read,
+   * the tracks are read from the index when they are first used.
+   *
+   * @param name file name
+   * @param index track index of the image data
+   */
+  private CPCDiscImage(String name, CPCDiscImageIndex index) {
+    super(name);
+    this.newImage = false;
+    this.discId = index.getDiscId();
+    this.creator = index.getCreator();
+    this.numberOfTracks = index.getNumberOfTracks();
+    this.numberOfSides = index.getNumberOfSides();
+    this.sizeOfTrack = index.getSizeOfTrack();
+    this.extended = index.isExtended();
     this.tracks = new CPCDiscImageTrack[this.numberOfTracks][this.numberOfSides];
-
-    if (isCpcDisc) {
-
-      // track size information
-      final byte[] trackSizes = new byte[256];
-      if (this.extended) {
-        System.arraycopy(data, 0x34, trackSizes, 0, this.numberOfTracks * this.numberOfSides);
-      }
-
-      // scan track data
-      int offs = 0x100;
-      for (int track = 0; track < this.numberOfTracks; track++) {
-        for (int side = 0; side < this.numberOfSides; side++) {
-
-          // track length
-          int trackLength = this.sizeOfTrack;
-          if (this.extended) {
-            trackLength = (trackSizes[track * this.numberOfSides + side] & 0xff) * 0x100;
-          }
-          if (trackLength != 0 && offs < data.length) {
-            // track information block
-            final int sot = offs;
-            final int numberOfSectors = data[offs + 0x15] & 0xff;
-            int sectorInformationPos = offs + 0x18;
-            this.tracks[track][side] = new CPCDiscImageTrack(track, side, trackLength, numberOfSectors);
-
-            // read sector data
-            offs += 0x100;
-            for (int sect = 0; sect < numberOfSectors; sect++) {
-
-              // sector information list
-              final int sectTrack = data[sectorInformationPos++] & 0xff; // C
-              final int sectSide = data[sectorInformationPos++] & 0xff; // H
-              final int sectId = data[sectorInformationPos++] & 0xff; // R
-              int sectSize = data[sectorInformationPos++] & 0xff; // N
-              int statusregisterA = data[sectorInformationPos++] & 0xff; // regA
-              int statusregisterB = data[sectorInformationPos++] & 0xff; // regB
-              //sectorInformationPos += 2; // FDC status register 1/2
-              int bytes = UPD765A.getSectorSize(sectSize);
-              if (this.extended && !winape) {
-                final int sz = Device.getWord(data, sectorInformationPos);
-                if (sz != 0) {
-                  bytes = sz;
-                  sectSize = UPD765A.getCommandSize(bytes);
-                }
-              }
-              sectorInformationPos += 2;
-              final byte[] sectData = new byte[bytes];
-              System.arraycopy(data, offs, sectData, 0, bytes);
-              offs += bytes;
-              this.tracks[track][side]
-                  .setSector(new CPCDiscImageSector(sectTrack, sectSide, sectId, sectSize, sectData), sect);
-            }
-            if (!winape) {
-              offs = sot + trackLength;
-            }
-          }
-        }
-      }
-    }
+    this.index = index;
   }
 
   /**
@@ -248,10 +291,10 @@ public class CPCDiscImage extends DiscImage {
     // set track data
     this.tracks = new CPCDiscImageTrack[this.numberOfTracks][this.numberOfSides];
     for (int i = 0; i < firstImage.numberOfTracks; i++) {
-      this.tracks[i][0] = firstImage.tracks[i][0];
+      this.tracks[i][0] = firstImage.getTrack(i, 0);
     }
     for (int i = 0; i < secondImage.numberOfTracks; i++) {
-      final CPCDiscImageTrack track = secondImage.tracks[i][0];
+      final CPCDiscImageTrack track = secondImage.getTrack(i, 0);
       track.setSide(1);
       this.tracks[i][1] = track;
     }
@@ -264,14 +307,14 @@ public class CPCDiscImage extends DiscImage {
           System.out.println("TRACK: " + track + " SIDE:" + side + " C:"+c+" H:"+h+" R:"+r+" N:"+n);
       }
     if (track <= MAX_TRACK) {
-      return this.tracks[track][side & SIDE_MASK].getSectorData(c, h, r, n); // n = UPD765A size
+      return getTrack(track, side & SIDE_MASK).getSectorData(c, h, r, n); // n = UPD765A size
     }
     return null;
   }
 
  // @Override
   public int[] getSectorID(final int track, final int side, final int index) {
-    return this.tracks[track][side & SIDE_MASK].getSectorIDs(index);
+    return getTrack(track, side & SIDE_MASK).getSectorIDs(index);
   }
 
   public void saveCheck(){
@@ -281,7 +324,7 @@ public class CPCDiscImage extends DiscImage {
   public int getSectorCount(final int track, final int side) {
       int result = 0;
       try{
-      result = track > MAX_TRACK ? 0 : this.tracks[track][side & SIDE_MASK].getSectorCount();}
+      result = track > MAX_TRACK ? 0 : getTrack(track, side & SIDE_MASK).getSectorCount();}
       catch (Exception e){}
     return result;
   }
@@ -294,6 +337,13 @@ public class CPCDiscImage extends DiscImage {
                           final int r,
                           final int n,
                           final byte[] data) {
+    final CPCDiscImageTrack td = track <= MAX_TRACK ? getTrack(track, side & SIDE_MASK) : null;
+    if (td != null) {
+      final CPCDiscImageSector sector = td.findSector(c, r, n);
+      if (sector != null) {
+        sector.setData(data);
+      }
+    }
   }
 
   /**
@@ -342,9 +392,30 @@ public class CPCDiscImage extends DiscImage {
    * @return track data for both sides
    */
   public CPCDiscImageTrack[][] getTracks() {
+    for (int track = 0; track < this.numberOfTracks; track++) {
+      for (int side = 0; side < this.numberOfSides; side++) {
+        getTrack(track, side);
+      }
+    }
     return this.tracks;
   }
 
+  /**
+   * Reads a track from the index when it is first used.
+   *
+   * @param track track number
+   * @param side side number
+   * @return the track or <code>null</code> when the image has no such track
+   */
+  private CPCDiscImageTrack getTrack(final int track, final int side) {
+    CPCDiscImageTrack result = this.tracks[track][side];
+    if (result == null && this.index != null) {
+      result = this.index.readTrack(track, side);
+      this.tracks[track][side] = result;
+    }
+    return result;
+  }
+
   /**
    * Save CPC disc image as EXTENDED DSK image.
    */
@@ -399,105 +470,300 @@ public class CPCDiscImage extends DiscImage {
         name = name+"_"+Switches.choosenname;
     if (!name.toLowerCase().endsWith(".dsk"))
     name = name+".dsk";
-    // save data to file
-    try {
-      final BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(name));
-      // disc information block
-      bos.write(EXTENDED_DESCRIPTION.getBytes(ENCODING));
-      bos.write(CREATOR_DATA.getBytes(ENCODING));
-      bos.write(this.numberOfTracks);
-      bos.write(this.numberOfSides);
-      bos.write(0);
-      bos.write(0);
+    if (saveInPlace(new File(name))) {
+      return;
+    }
+    saveLater(new File(name), false);
+  }
 
-      // track size table
-      for (int track = 0; track < this.numberOfTracks; track++) {
-        for (int side = 0; side < this.numberOfSides; side++) {
-          final int trackLength = this.tracks[track][side].getLength();
-          bos.write((trackLength / 256) & 0xFF);
+    public synchronized void saveDSZImage(File savedImage) {
+    if (System.getSecurityManager() != null) {
+      try {
+        System.getSecurityManager().checkWrite(savedImage.getAbsolutePath());
+      } catch (final SecurityException sex) {
+        // don't save
+        return;
+      }
+    }
+
+    System.out.println("store dsk file to " + savedImage);
+    this.name = savedImage.getAbsolutePath();
+    if (name.toLowerCase().endsWith(".zip") || name.toLowerCase().endsWith(".dsk"))
+        name = name.substring(0, name.length()-4);
+    if (!name.toLowerCase().endsWith(".dsz"))
+    name = name+".dsz";
+    saveLater(new File(name), true);
+  }
+
+  /**
+   * Saves the written sectors. When the save file holds this image as it was last
+   * written in full, only the sectors are appended to its journal and the file is
+   * rewritten later by compactJournal(). Otherwise the image is written in full by
+   * the saver thread.
+   *
+   * @param savedImage save file
+   * @param compressed write a gzip compressed DSZ file
+   */
+  private void saveLater(final File savedImage, final boolean compressed) {
+    final File file = savedImage.getAbsoluteFile();
+    final File journal = new File(file.getPath() + JOURNAL);
+    if (file.equals(this.compacted) && file.isFile()) {
+      try {
+        final int appended = writeJournal(journal);
+        if (appended > 0) {
+          this.journalLength += appended;
+          this.saveGeneration++;
         }
+      } catch (final IOException iox) {
+        System.out.println("can't write to file " + journal + ": " + iox.getMessage());
+        return;
       }
-      int unused = 0x100 - 0x34 - this.numberOfTracks * this.numberOfSides;
-      for (int i = 0; i < unused; i++) {
-        bos.write(0);
+      if (this.journalLength < getImageLength()) {
+        return;
+      }
+      compactJournal();
+      return;
+    }
+    final ByteArrayOutputStream image = new ByteArrayOutputStream(getImageLength());
+    try {
+      writeJournal(journal);
+      writeImage(image);
+    } catch (final IOException iox) {
+      System.out.println("can't write to file " + savedImage + ": " + iox.getMessage());
+      return;
+    }
+    // the sector offsets and dirty flags no longer describe the mapped file, all
+    // tracks and sector data have been read from it
+    this.source = null;
+    this.index = null;
+    this.compacted = file;
+    this.journalLength = 0;
+    final byte[] data = image.toByteArray();
+    final int generation = ++this.saveGeneration;
+    SAVER.execute(new Runnable() {
+      public void run() {
+        compact(file, journal, data, compressed, generation);
       }
+    });
+  }
 
-      // track data
+  /**
+   * Rewrites the save file with the sectors of its journal on the saver thread.
+   * The file is read back and the journal replayed onto it, so sectors written
+   * but not saved yet are left out. Called when the disc leaves its drive.
+   */
+  public synchronized void compactJournal() {
+    if (this.compacted == null || this.journalLength == 0) {
+      return;
+    }
+    final File savedImage = this.compacted;
+    final File journal = new File(savedImage.getPath() + JOURNAL);
+    final boolean compressed = savedImage.getName().toLowerCase().endsWith(".dsz");
+    // the layout of the rewritten file can differ from the mapped one
+    this.source = null;
+    final int generation = this.saveGeneration;
+    SAVER.execute(new Runnable() {
+      public void run() {
+        final ByteArrayOutputStream image = new ByteArrayOutputStream(getImageLength());
+        try {
+          InputStream is = new FileInputStream(savedImage);
+          if (compressed) {
+            is = new GZIPInputStream(is);
+          }
+          final CPCDiscImage saved = new CPCDiscImage(savedImage.getPath(),
+              new CPCDiscImageIndex(ByteBuffer.wrap(load(is))));
+          synchronized (CPCDiscImage.this) {
+            saved.applyJournal(journal);
+          }
+          saved.writeImage(image);
+        } catch (final IOException iox) {
+          System.out.println("can't compact journal " + journal + ": " + iox.getMessage());
+          return;
+        }
+        compact(savedImage, journal, image.toByteArray(), compressed, generation);
+      }
+    });
+  }
+
+  /**
+   * Appends all sectors written since the last save to the journal.
+   *
+   * @param journal journal file
+   * @return number of bytes appended
+   * @throws IOException when the journal can't be written
+   */
+  private int writeJournal(final File journal) throws IOException {
+    DataOutputStream dos = null;
+    try {
+      // tracks not read from the index yet have no written sectors
       for (int track = 0; track < this.numberOfTracks; track++) {
         for (int side = 0; side < this.numberOfSides; side++) {
           final CPCDiscImageTrack td = this.tracks[track][side];
-          // track information block
-          bos.write(TRACK_INFO.getBytes(ENCODING));
-          bos.write(0); // track info end
-          bos.write(0); // unused
-          bos.write(0); // unused
-          bos.write(0); // unused
-          bos.write(td.getTrack());
-          bos.write(td.getSide());
-          bos.write(0); // unused
-          bos.write(0); // unused
-          bos.write(td.getSector(0).getSize()); // UPD765A size
-          final int numberOfSectors = td.getSectorCount();
-          bos.write(numberOfSectors);
-          bos.write(0x4e); // GAP#3 length
-          bos.write(0xe5); // filler byte
-
-          // sector information list
-          for (int sector = 0; sector < numberOfSectors; sector++) {
+          for (int sector = 0; td != null && sector < td.getSectorCount(); sector++) {
             final CPCDiscImageSector sd = td.getSector(sector);
-            bos.write(sd.getTrack());
-            bos.write(sd.getSide());
-            bos.write(sd.getId());
-            bos.write(sd.getSize()); // UPD765A size
-            bos.write(0); // FDC status register 1
-            bos.write(0); // FDC status register 2
-            final int dataSize = sd.getData().length;
-            bos.write(dataSize & 0xFF);
-            bos.write((dataSize / 256) & 0xFF);
-            // System.out.println("sec " + sd.getTrack() + "/" + sd.getSide() + "/" + sd.getId() + "/"
-            // + UPD765A.getCommandSize(sd.getSize()) + " size=" + sd.getData().length);
-            // System.out.println(" -> " + (dataSize & 0xFF) + " / " + ((dataSize / 256) & 0xFF));
-          }
-          unused = 0x100 - 0x18 - 8 * numberOfSectors;
-          for (int i = 0; i < unused; i++) {
-            bos.write(0);
-          }
-          for (int sector = 0; sector < numberOfSectors; sector++) {
-            bos.write(td.getSector(sector).getData());
+            if (sd.isDirty()) {
+              if (dos == null) {
+                dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true)));
+              }
+              dos.write(track);
+              dos.write(side);
+              dos.write(sd.getTrack());
+              dos.write(sd.getId());
+              dos.write(sd.getSize()); // UPD765A size
+              dos.writeShort(sd.getData().length);
+              dos.write(sd.getData());
+              sd.setDirty(false);
+            }
           }
         }
       }
-      bos.close();
+    } finally {
+      if (dos != null) {
+        dos.close();
+      }
+    }
+    return dos == null ? 0 : dos.size();
+  }
+
+  /**
+   * Applies the journal of the image file, left by an interrupted save or not
+   * compacted yet.
+   *
+   * @return number of sectors restored from the journal
+   */
+  public synchronized int replayJournal() {
+    final File file = new File(this.name).getAbsoluteFile();
+    final File journal = new File(file.getPath() + JOURNAL);
+    if (!journal.isFile()) {
+      return 0;
+    }
+    final int replayed = applyJournal(journal);
+    // the journaled sectors are saved already, the file is rewritten with them later
+    this.compacted = file;
+    this.journalLength = journal.length();
+    System.out.println(replayed + " sectors restored from " + journal);
+    return replayed;
+  }
 
+  /**
+   * Writes the sectors of a journal into the image.
+   *
+   * @param journal journal file
+   * @return number of sectors written
+   */
+  private int applyJournal(final File journal) {
+    int replayed = 0;
+    try {
+      final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+      try {
+        while (dis.available() > 0) {
+          final int track = dis.read();
+          final int side = dis.read();
+          final int c = dis.read();
+          final int r = dis.read();
+          final int n = dis.read();
+          final byte[] data = new byte[dis.readUnsignedShort()];
+          dis.readFully(data);
+          final CPCDiscImageTrack td = track < this.numberOfTracks && side < this.numberOfSides ? getTrack(track, side)
+              : null;
+          if (td != null) {
+            final CPCDiscImageSector sector = td.findSector(c, r, n);
+            // the length may differ from the image file, that is why it was journaled
+            if (sector != null) {
+              sector.setData(data);
+              sector.setDirty(false);
+              replayed++;
+            }
+          }
+        }
+      } finally {
+        dis.close();
+      }
     } catch (final IOException iox) {
-      System.out.println("can't write to file " + savedImage + ": " + iox.getMessage());
+      System.out.println("can't read journal " + journal + ": " + iox.getMessage());
     }
+    return replayed;
   }
 
-    public synchronized void saveDSZImage(File savedImage) {
-    if (System.getSecurityManager() != null) {
+  /**
+   * Writes the whole image to the save file. Runs on the saver thread.
+   *
+   * The image is written to a temporary file which then replaces the save file in
+   * one step, so a crash leaves either file complete. When the save file can't be
+   * replaced, for example while another program has it open, the image is kept in
+   * the temporary file and the journal is kept.
+   *
+   * @param savedImage save file
+   * @param journal journal file, deleted once no newer save has been made
+   * @param data image data
+   * @param compressed write a gzip compressed DSZ file
+   * @param generation save generation of the data
+   */
+  private void compact(final File savedImage, final File journal, final byte[] data, final boolean compressed,
+                       final int generation) {
+    final File temp = new File(savedImage.getPath() + ".tmp");
+    try {
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(temp));
+      if (compressed) {
+        os = new GZIPOutputStream(os);
+      }
       try {
-        System.getSecurityManager().checkWrite(savedImage.getAbsolutePath());
-      } catch (final SecurityException sex) {
-        // don't save
-        return;
+        os.write(data);
+      } finally {
+        os.close();
+      }
+    } catch (final IOException iox) {
+      temp.delete();
+      System.out.println("can't write to file " + temp + ": " + iox.getMessage());
+      return;
+    }
+    try {
+      try {
+        Files.move(temp.toPath(), savedImage.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException amx) {
+        Files.move(temp.toPath(), savedImage.toPath(), StandardCopyOption.REPLACE_EXISTING);
       }
+    } catch (final IOException iox) {
+      System.out.println("can't replace " + savedImage + ", the image is saved as " + temp + ": " + iox);
+      return;
     }
+    synchronized (this) {
+      if (generation == this.saveGeneration) {
+        journal.delete();
+        this.journalLength = 0;
+      }
+    }
+  }
 
-    System.out.println("store dsk file to " + savedImage);
-    this.name = savedImage.getAbsolutePath();
-    if (name.toLowerCase().endsWith(".zip") || name.toLowerCase().endsWith(".dsk"))
-        name = name.substring(0, name.length()-4);
-    if (!name.toLowerCase().endsWith(".dsz"))
-    name = name+".dsz";
-    // save data to file  File gzip_output = new File (filename  + savename);
-    File gzip_output = new File (name);
-    GZIPOutputStream bos;
+  /**
+   * @return the length of the image written in full, an estimate for standard tracks
+   */
+  private int getImageLength() {
+    return 0x100 + this.numberOfTracks * this.numberOfSides * 0x1300;
+  }
 
+  /**
+   * Waits until the saver thread has written all queued images.
+   */
+  public static void waitForSaves() {
     try {
-      FileOutputStream outp = new FileOutputStream (gzip_output);
-      bos =
-        new GZIPOutputStream (new BufferedOutputStream (outp));
+      SAVER.submit(new Runnable() {
+        public void run() {
+        }
+      }).get();
+    } catch (final Exception ex) {
+      System.out.println("waiting for disc saves failed: " + ex.getMessage());
+    }
+  }
+
+  /**
+   * Writes the image as EXTENDED DSK.
+   *
+   * @param bos output stream
+   * @throws IOException when writing fails
+   */
+  private void writeImage(final OutputStream bos) throws IOException {
       // disc information block
       bos.write(EXTENDED_DESCRIPTION.getBytes(ENCODING));
       bos.write(CREATOR_DATA.getBytes(ENCODING));
@@ -509,7 +775,7 @@ public class CPCDiscImage extends DiscImage {
       // track size table
       for (int track = 0; track < this.numberOfTracks; track++) {
         for (int side = 0; side < this.numberOfSides; side++) {
-          final int trackLength = this.tracks[track][side].getLength();
+          final int trackLength = getWrittenLength(getTrack(track, side));
           bos.write((trackLength / 256) & 0xFF);
         }
       }
@@ -521,7 +787,7 @@ public class CPCDiscImage extends DiscImage {
       // track data
       for (int track = 0; track < this.numberOfTracks; track++) {
         for (int side = 0; side < this.numberOfSides; side++) {
-          final CPCDiscImageTrack td = this.tracks[track][side];
+          final CPCDiscImageTrack td = getTrack(track, side);
           // track information block
           bos.write(TRACK_INFO.getBytes(ENCODING));
           bos.write(0); // track info end
@@ -547,27 +813,90 @@ public class CPCDiscImage extends DiscImage {
             bos.write(sd.getSize()); // UPD765A size
             bos.write(0); // FDC status register 1
             bos.write(0); // FDC status register 2
-            final int dataSize = sd.getData().length;
+            final int dataSize = sd.getLength();
             bos.write(dataSize & 0xFF);
             bos.write((dataSize / 256) & 0xFF);
-            // System.out.println("sec " + sd.getTrack() + "/" + sd.getSide() + "/" + sd.getId() + "/"
-            // + UPD765A.getCommandSize(sd.getSize()) + " size=" + sd.getData().length);
-            // System.out.println(" -> " + (dataSize & 0xFF) + " / " + ((dataSize / 256) & 0xFF));
           }
           unused = 0x100 - 0x18 - 8 * numberOfSectors;
           for (int i = 0; i < unused; i++) {
             bos.write(0);
           }
+          int written = 0x100;
           for (int sector = 0; sector < numberOfSectors; sector++) {
             bos.write(td.getSector(sector).getData());
+            written += td.getSector(sector).getLength();
+          }
+          for (final int trackLength = getWrittenLength(td); written < trackLength; written++) {
+            bos.write(0);
           }
         }
       }
-      bos.close();
+  }
 
+  /**
+   * Length of a track as writeImage() writes it, from the length of its sector
+   * data rather than the length it was read with.
+   *
+   * @param td track
+   * @return track length, a multiple of 256
+   */
+  private static int getWrittenLength(final CPCDiscImageTrack td) {
+    int length = 0x100;
+    for (int sector = 0; sector < td.getSectorCount(); sector++) {
+      length += td.getSector(sector).getLength();
+    }
+    return (length + 0xff) & ~0xff;
+  }
+
+  /**
+   * Writes the changed sectors back into the file the image was mapped from.
+   *
+   * @param savedImage save file
+   * @return <code>false</code> when the whole image has to be written
+   */
+  private boolean saveInPlace(final File savedImage) {
+    if (this.source == null || !this.source.equals(savedImage.getAbsoluteFile())
+        || this.source.length() == 0 || this.journalLength > 0) {
+      return false;
+    }
+    // tracks not read from the index yet are unchanged
+    for (int track = 0; track < this.numberOfTracks; track++) {
+      for (int side = 0; side < this.numberOfSides; side++) {
+        final CPCDiscImageTrack td = this.tracks[track][side];
+        for (int sector = 0; td != null && sector < td.getSectorCount(); sector++) {
+          if (!td.getSector(sector).isStoredInPlace()) {
+            return false;
+          }
+        }
+      }
+    }
+    int written = 0;
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(savedImage, "rw");
+      try {
+        final FileChannel channel = raf.getChannel();
+        for (int track = 0; track < this.numberOfTracks; track++) {
+          for (int side = 0; side < this.numberOfSides; side++) {
+            final CPCDiscImageTrack td = this.tracks[track][side];
+            for (int sector = 0; td != null && sector < td.getSectorCount(); sector++) {
+              final CPCDiscImageSector sd = td.getSector(sector);
+              if (sd.isDirty()) {
+                channel.write(ByteBuffer.wrap(sd.getData()), sd.getOffset());
+                sd.setDirty(false);
+                written++;
+              }
+            }
+          }
+        }
+      } finally {
+        raf.close();
+      }
+      new File(savedImage.getPath() + JOURNAL).delete();
     } catch (final IOException iox) {
       System.out.println("can't write to file " + savedImage + ": " + iox.getMessage());
     }
+    System.out.println(written + " changed sectors written to " + savedImage);
+    return true;
   }
 
   /**
@@ -14,11 +14,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 
-import jemu.core.device.Device;
 import jemu.core.device.floppy.DiscImage;
 import jemu.core.device.floppy.UPD765A;
 
@@ -32,10 +32,6 @@ public class CPCDiscImageForMerge extends DiscImage {
   //private static final String         SAVED_DSK            = "_saved";
     private static final String         SAVED_DSK            = "";
 
-  private static final String         WIN_APE_EYECATCHER   = "Win APE 32 1.0";
-
-  private static final String         MV_CPC_EYECATCHER    = "MV - CPC";
-
   private static final String         EXTENDED_EYECATCHER  = "EXTENDED";
 
   private static final String         EXTENDED_DESCRIPTION = EXTENDED_EYECATCHER + " CPC DSK File\r\nDisk-Info\r\n";
@@ -141,76 +137,25 @@ public class CPCDiscImageForMerge extends DiscImage {
    * @param data image data
    */
   public CPCDiscImageForMerge(String name, byte[] data) {
+    this(name, new CPCDiscImageIndex(ByteBuffer.wrap(data)));
+  }
+
+  /**
+   * Creates a new instance of CPCDiscImage with all tracks read from the index.
+   * 
+   * @param name file name
+   * @param index track index of the image data
+   */
+  private CPCDiscImageForMerge(String name, CPCDiscImageIndex index) {
     super(name);
     this.newImage = false;
-    this.discId = new String(data, 0, 0x22);
-    this.creator = new String(data, 0x22, 0x0E);
-    this.numberOfTracks = data[0x30] & 0xff;
-    this.numberOfSides = data[0x31] & 0xff;
-    this.sizeOfTrack = Device.getWord(data, 0x32);
-    this.extended = this.discId.toUpperCase().startsWith(EXTENDED_EYECATCHER);
-    final boolean isCpcDisc = this.extended || this.discId.toUpperCase().startsWith(MV_CPC_EYECATCHER);
-    final boolean winape = this.creator.equalsIgnoreCase(WIN_APE_EYECATCHER);
-
-    this.tracks = new CPCDiscImageTrack[this.numberOfTracks][this.numberOfSides];
-
-    if (isCpcDisc) {
-
-      // track size information
-      final byte[] trackSizes = new byte[256];
-      if (this.extended) {
-        System.arraycopy(data, 0x34, trackSizes, 0, this.numberOfTracks * this.numberOfSides);
-      }
-
-      // scan track data
-      int offs = 0x100;
-      for (int track = 0; track < this.numberOfTracks; track++) {
-        for (int side = 0; side < this.numberOfSides; side++) {
-
-          // track length
-          int trackLength = this.sizeOfTrack;
-          if (this.extended) {
-            trackLength = (trackSizes[track * this.numberOfSides + side] & 0xff) * 0x100;
-          }
-          if (trackLength != 0 && offs < data.length) {
-            // track information block
-            final int sot = offs;
-            final int numberOfSectors = data[offs + 0x15] & 0xff;
-            int sectorInformationPos = offs + 0x18;
-            this.tracks[track][side] = new CPCDiscImageTrack(track, side, trackLength, numberOfSectors);
-
-            // read sector data
-            offs += 0x100;
-            for (int sect = 0; sect < numberOfSectors; sect++) {
-
-              // sector information list
-              final int sectTrack = data[sectorInformationPos++] & 0xff; // C
-              final int sectSide = data[sectorInformationPos++] & 0xff; // H
-              final int sectId = data[sectorInformationPos++] & 0xff; // R
-              int sectSize = data[sectorInformationPos++] & 0xff; // N
-              sectorInformationPos += 2; // FDC status register 1/2
-              int bytes = UPD765A.getSectorSize(sectSize);
-              if (this.extended && !winape) {
-                final int sz = Device.getWord(data, sectorInformationPos);
-                if (sz != 0) {
-                  bytes = sz;
-                  sectSize = UPD765A.getCommandSize(bytes);
-                }
-              }
-              sectorInformationPos += 2;
-              final byte[] sectData = new byte[bytes];
-              System.arraycopy(data, offs, sectData, 0, bytes);
-              offs += bytes;
-              this.tracks[track][side]
-                  .setSector(new CPCDiscImageSector(sectTrack, sectSide, sectId, sectSize, sectData), sect);
-            }
-            if (!winape) {
-              offs = sot + trackLength;
-            }
-          }
-        }
-      }
-    }
+    this.discId = index.getDiscId();
+    this.creator = index.getCreator();
+    this.numberOfTracks = index.getNumberOfTracks();
+    this.numberOfSides = index.getNumberOfSides();
+    this.sizeOfTrack = index.getSizeOfTrack();
+    this.extended = index.isExtended();
+    this.tracks = index.readTracks();
   }
 
   /**
@@ -422,7 +367,7 @@ public class CPCDiscImageForMerge extends DiscImage {
             bos.write(sd.getSize()); // UPD765A size
             bos.write(0); // FDC status register 1
             bos.write(0); // FDC status register 2
-            final int dataSize = sd.getData().length;
+            final int dataSize = sd.getLength();
             bos.write(dataSize & 0xFF);
             bos.write((dataSize / 256) & 0xFF);
             // System.out.println("sec " + sd.getTrack() + "/" + sd.getSide() + "/" + sd.getId() + "/"
@@ -538,7 +483,7 @@ public class CPCDiscImageForMerge extends DiscImage {
             bos.write(sd.getSize()); // UPD765A size
             bos.write(0); // FDC status register 1
             bos.write(0); // FDC status register 2
-            final int dataSize = sd.getData().length;
+            final int dataSize = sd.getLength();
             bos.write(dataSize & 0xFF);
             bos.write((dataSize / 256) & 0xFF);
             // System.out.println("sec " + sd.getTrack() + "/" + sd.getSide() + "/" + sd.getId() + "/"
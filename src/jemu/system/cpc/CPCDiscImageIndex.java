@@ -0,0 +1,290 @@
+package jemu.system.cpc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import jemu.core.device.floppy.UPD765A;
+
+/**
+ * Track index of a CPC disc image, built once over the image data.
+ *
+ * Only the disc information block and the track offsets are read when the index
+ * is built. A track is parsed when it is first asked for and its sectors take
+ * their data from the image data when it is first used.
+ *
+ * A mapped file stays mapped for the life of the image. Another process cutting
+ * the file short would make the pages past its new end fault on access, so reads
+ * check the length of the file first and read what is left through the file then.
+ *
+ * @author Roland.Barthel
+ */
+public class CPCDiscImageIndex {
+
+  private static final String WIN_APE_EYECATCHER  = "Win APE 32 1.0";
+
+  private static final String MV_CPC_EYECATCHER   = "MV - CPC";
+
+  private static final String EXTENDED_EYECATCHER = "EXTENDED";
+
+  /** image data, a heap or a mapped buffer. */
+  private final ByteBuffer    data;
+
+  /** file the data is mapped from, <code>null</code> for heap data. */
+  private final File          file;
+
+  /** disc info. */
+  private final String        discId;
+  /** name of creator. */
+  private final String        creator;
+  /** number of tracks. */
+  private final int           numberOfTracks;
+  /** number of sides. */
+  private final int           numberOfSides;
+  /** size of a track . */
+  private final int           sizeOfTrack;
+
+  /** extended DISK format? (Revision 5) */
+  private final boolean       extended;
+
+  /** written by WinAPE, which stores the sector data without gaps? */
+  private final boolean       winape;
+
+  /** offset of the track information block per track and side, -1 for no track. */
+  private final int[]         trackOffsets;
+
+  /** track length per track and side. */
+  private final int[]         trackLengths;
+
+  /**
+   * Create the index of an image.
+   *
+   * @param data image data, a heap buffer
+   */
+  public CPCDiscImageIndex(final ByteBuffer data) {
+    this(data, null);
+  }
+
+  /**
+   * Create the index of an image.
+   *
+   * @param data image data, a heap or a mapped buffer
+   * @param file file the data is mapped from, <code>null</code> for heap data
+   */
+  public CPCDiscImageIndex(final ByteBuffer data, final File file) {
+    this.data = data;
+    this.file = file;
+    this.discId = getString(data, 0, 0x22);
+    this.creator = getString(data, 0x22, 0x0E);
+    this.numberOfTracks = data.get(0x30) & 0xff;
+    this.numberOfSides = data.get(0x31) & 0xff;
+    this.sizeOfTrack = getWord(data, 0x32);
+    this.extended = this.discId.toUpperCase().startsWith(EXTENDED_EYECATCHER);
+    this.winape = this.creator.equalsIgnoreCase(WIN_APE_EYECATCHER);
+    final boolean isCpcDisc = this.extended || this.discId.toUpperCase().startsWith(MV_CPC_EYECATCHER);
+
+    final int count = this.numberOfTracks * this.numberOfSides;
+    this.trackOffsets = new int[count];
+    this.trackLengths = new int[count];
+    int offs = 0x100;
+    for (int i = 0; i < count; i++) {
+      // track length
+      int trackLength = this.sizeOfTrack;
+      if (this.extended) {
+        trackLength = (data.get(0x34 + i) & 0xff) * 0x100;
+      }
+      if (isCpcDisc && trackLength != 0 && offs < data.limit()) {
+        this.trackOffsets[i] = offs;
+        this.trackLengths[i] = trackLength;
+        if (this.winape) {
+          // the next track follows the sector data
+          final int numberOfSectors = data.get(offs + 0x15) & 0xff;
+          int sectorInformationPos = offs + 0x18;
+          offs += 0x100;
+          for (int sect = 0; sect < numberOfSectors; sect++) {
+            offs += UPD765A.getSectorSize(data.get(sectorInformationPos + 3) & 0xff);
+            sectorInformationPos += 8;
+          }
+        } else {
+          offs += trackLength;
+        }
+      } else {
+        this.trackOffsets[i] = -1;
+      }
+    }
+  }
+
+  /**
+   * Parse a track. The sectors keep reading their data from the image data until
+   * it is used.
+   *
+   * @param track track number
+   * @param side side number
+   * @return a new track or <code>null</code> when the image has no such track
+   */
+  public CPCDiscImageTrack readTrack(final int track, final int side) {
+    final int i = track * this.numberOfSides + side;
+    if (this.trackOffsets[i] < 0) {
+      return null;
+    }
+    // track information block
+    int offs = this.trackOffsets[i];
+    final ByteBuffer info = this.file == null ? this.data : ByteBuffer.wrap(read(offs, new byte[0x100]));
+    final int infoOffs = this.file == null ? offs : 0;
+    final int numberOfSectors = info.get(infoOffs + 0x15) & 0xff;
+    int sectorInformationPos = infoOffs + 0x18;
+    final CPCDiscImageTrack result = new CPCDiscImageTrack(track, side, this.trackLengths[i], numberOfSectors);
+
+    // sector information list
+    offs += 0x100;
+    for (int sect = 0; sect < numberOfSectors; sect++) {
+      final int sectTrack = info.get(sectorInformationPos) & 0xff; // C
+      final int sectSide = info.get(sectorInformationPos + 1) & 0xff; // H
+      final int sectId = info.get(sectorInformationPos + 2) & 0xff; // R
+      int sectSize = info.get(sectorInformationPos + 3) & 0xff; // N
+      // +4/+5 FDC status register 1/2
+      int bytes = UPD765A.getSectorSize(sectSize);
+      if (this.extended && !this.winape) {
+        final int sz = getWord(info, sectorInformationPos + 6);
+        if (sz != 0) {
+          bytes = sz;
+          sectSize = UPD765A.getCommandSize(bytes);
+        }
+      }
+      sectorInformationPos += 8;
+      result.setSector(new CPCDiscImageSector(sectTrack, sectSide, sectId, sectSize, this, offs, bytes), sect);
+      offs += bytes;
+    }
+    return result;
+  }
+
+  /**
+   * Parse all tracks.
+   *
+   * @return the tracks, <code>null</code> where the image has no track
+   */
+  public CPCDiscImageTrack[][] readTracks() {
+    final CPCDiscImageTrack[][] result = new CPCDiscImageTrack[this.numberOfTracks][this.numberOfSides];
+    for (int track = 0; track < this.numberOfTracks; track++) {
+      for (int side = 0; side < this.numberOfSides; side++) {
+        result[track][side] = readTrack(track, side);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return disc info
+   */
+  public String getDiscId() {
+    return this.discId;
+  }
+
+  /**
+   * @return disc creator
+   */
+  public String getCreator() {
+    return this.creator;
+  }
+
+  /**
+   * @return number of tracks
+   */
+  public int getNumberOfTracks() {
+    return this.numberOfTracks;
+  }
+
+  /**
+   * @return number of sides
+   */
+  public int getNumberOfSides() {
+    return this.numberOfSides;
+  }
+
+  /**
+   * @return the track size
+   */
+  public int getSizeOfTrack() {
+    return this.sizeOfTrack;
+  }
+
+  /**
+   * @return <code>true</code> for extended disc format
+   */
+  public boolean isExtended() {
+    return this.extended;
+  }
+
+  /**
+   * Copy image data, zeros past the end of the image.
+   *
+   * @param offs offset of the first byte
+   * @param dest receives the bytes
+   * @return dest
+   */
+  byte[] read(final int offs, final byte[] dest) {
+    if (this.file != null && this.file.length() < (long)offs + dest.length) {
+      readFile(offs, dest);
+      return dest;
+    }
+    try {
+      getBytes(this.data, offs, dest);
+    } catch (final InternalError e) {
+      // the file was cut short after its length was checked
+      readFile(offs, dest);
+    }
+    return dest;
+  }
+
+  /**
+   * Read image data through the file instead of the mapping.
+   */
+  private void readFile(final int offs, final byte[] dest) {
+    java.util.Arrays.fill(dest, (byte)0);
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+      try {
+        final int length = (int)Math.max(0, Math.min(dest.length, raf.length() - offs));
+        raf.seek(offs);
+        raf.readFully(dest, 0, length);
+      } finally {
+        raf.close();
+      }
+    } catch (final IOException iox) {
+      System.out.println("can't read " + this.file + ": " + iox.getMessage());
+    }
+  }
+
+  static String getString(final ByteBuffer data, final int offs, final int length) {
+    final byte[] bytes = new byte[length];
+    getBytes(data, offs, bytes);
+    return new String(bytes);
+  }
+
+  /**
+   * Copy image data, a truncated image reads as zeros past its end.
+   *
+   * @param data image data
+   * @param offs offset of the first byte
+   * @param dest receives the bytes
+   */
+  static void getBytes(final ByteBuffer data, final int offs, final byte[] dest) {
+    final int length = Math.min(dest.length, data.limit() - offs);
+    if (length <= 0) {
+      return;
+    }
+    // sectors of the same image may be read from different threads
+    synchronized (data) {
+      // Buffer.position(int), ByteBuffer only overrides it from Java 9 on
+      ((Buffer)data).position(offs);
+      data.get(dest, 0, length);
+    }
+  }
+
+  private static int getWord(final ByteBuffer data, final int offs) {
+    return (data.get(offs) & 0xff) | ((data.get(offs + 1) << 8) & 0xff00);
+  }
+
+}
@@ -19,9 +19,21 @@ public class CPCDiscImageSector {
   /** the sector size (UPD765A size). */
   private final int size;
 
-  /** sector data. */
+  /** sector data, <code>null</code> until it is read from the image. */
   private byte[]    data;
 
+  /** index of the image holding the sector data until it is first used. */
+  private CPCDiscImageIndex image;
+
+  /** offset of the sector data in the image file, -1 if unknown. */
+  private int       offset = -1;
+
+  /** length of the sector data in the image file. */
+  private int       storedLength;
+
+  /** written since it was last stored? */
+  private boolean   dirty;
+
   /**
    * Create a new instance of a sector.
    * 
@@ -40,6 +52,27 @@ public class CPCDiscImageSector {
     this.data = data;
   }
 
+  /**
+   * Create a sector of a loaded image. The data is copied out of the image when
+   * it is first used, written data replaces the copy and the image is never
+   * changed.
+   * 
+   * @param track track number
+   * @param side side number (0/1)
+   * @param id sector id
+   * @param size sector size (UPD765A size)
+   * @param image index of the image
+   * @param offset offset of the sector data in the image
+   * @param length length of the sector data
+   */
+  public CPCDiscImageSector(final int track, final int side, final int id, final int size, final CPCDiscImageIndex image,
+                            final int offset, final int length) {
+    this(track, side, id, size, null);
+    this.image = image;
+    this.offset = offset;
+    this.storedLength = length;
+  }
+
   /**
    * @return sector id
    */
@@ -72,9 +105,20 @@ public class CPCDiscImageSector {
    * @return sector data
    */
   public byte[] getData() {
+    if (this.data == null) {
+      this.data = this.image.read(this.offset, new byte[this.storedLength]);
+      this.image = null;
+    }
     return this.data;
   }
 
+  /**
+   * @return length of the sector data, without copying it out of the image
+   */
+  public int getLength() {
+    return this.data == null ? this.storedLength : this.data.length;
+  }
+
   /**
    * Set new sector data.
    * 
@@ -82,6 +126,38 @@ public class CPCDiscImageSector {
    */
   public void setData(final byte[] data) {
     this.data = data;
+    this.image = null;
+    this.dirty = true;
+  }
+
+  /**
+   * @return file offset of the sector data, -1 if unknown
+   */
+  public int getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * @return <code>true</code> if the data still fits where it was loaded from
+   */
+  public boolean isStoredInPlace() {
+    return this.offset >= 0 && getLength() == this.storedLength;
+  }
+
+  /**
+   * @return <code>true</code> if the sector was written since it was last stored
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * Set or clear the written flag.
+   * 
+   * @param dirty new flag
+   */
+  public void setDirty(final boolean dirty) {
+    this.dirty = dirty;
   }
 
   /**
@@ -1,5 +1,7 @@
 package jemu.system.cpc;
 
+import java.util.Arrays;
+
 /**
  * Track of a CPC disc image.
  *
@@ -7,6 +9,9 @@ package jemu.system.cpc;
  */
 public class CPCDiscImageTrack {
 
+  /** number of sector id hash buckets, the ids of a track usually differ in the low bits. */
+  private static final int           ID_HASH_SIZE = 32;
+
   /** the track number. */
   private final int                  track;
 
@@ -19,6 +24,12 @@ public class CPCDiscImageTrack {
   /** sector data. */
   private final CPCDiscImageSector[] sectors;
 
+  /** index of the first sector per id hash bucket, -1 for none, <code>null</code> until needed. */
+  private int[]                      firstById;
+
+  /** index of the next sector in the same id hash bucket, -1 for none. */
+  private int[]                      nextById;
+
   /**
    * Create a new instance of a track.
    *
@@ -42,6 +53,7 @@ public class CPCDiscImageTrack {
    */
   public void setSector(final CPCDiscImageSector sector, final int index) {
     this.sectors[index] = sector;
+    this.firstById = null;
   }
 
 
@@ -108,7 +120,7 @@ public class CPCDiscImageTrack {
                             final int sectorId,
                             final int sectorSize,
                             final byte[] data) {
-    for (int i = 0; i < this.sectors.length; i++) {
+    for (int i = firstSector(sectorId); i != -1; i = this.nextById[i]) {
       final CPCDiscImageSector sect = this.sectors[i];
       if (sect.getTrack() == sectorTrack && sect.getSide() == sectorSide && sect.getId() == sectorId
           && sect.getSize() == sectorSize) {
@@ -130,16 +142,56 @@ public class CPCDiscImageTrack {
    * @return sector data or <code>null</code> when not found
    */
   public byte[] getSectorData(final int sectorTrack, final int sectorSide, final int sectorId, final int sectorSize) {
-    for (int i = 0; i < this.sectors.length; i++) {
+    final CPCDiscImageSector sect = findSector(sectorTrack, sectorId, sectorSize);
+    return sect == null ? null : sect.getData();
+  }
+
+  /**
+   * Search a sector, the side is not checked.
+   *
+   * @param sectorTrack sector track
+   * @param sectorId sector id
+   * @param sectorSize sector size (UPD765A size)
+   * @return sector or <code>null</code> when not found
+   */
+  public CPCDiscImageSector findSector(final int sectorTrack, final int sectorId, final int sectorSize) {
+    for (int i = firstSector(sectorId); i != -1; i = this.nextById[i]) {
       final CPCDiscImageSector sect = this.sectors[i];
-      // no side check!
       if (sect.getTrack() == sectorTrack && sect.getId() == sectorId && sect.getSize() == sectorSize) {
-        return sect.getData();
+        return sect;
       }
     }
     return null;
   }
 
+  /**
+   * Index of the first sector that may have an id, the sectors of its hash bucket
+   * follow through nextById in track order.
+   *
+   * @param sectorId sector id
+   * @return sector index or -1
+   */
+  private int firstSector(final int sectorId) {
+    if (this.firstById == null) {
+      final int[] first = new int[ID_HASH_SIZE];
+      Arrays.fill(first, -1);
+      if (this.nextById == null) {
+        this.nextById = new int[this.sectors.length];
+      }
+      for (int i = this.sectors.length - 1; i >= 0; i--) {
+        if (this.sectors[i] == null) {
+          this.nextById[i] = -1;
+        } else {
+          final int bucket = this.sectors[i].getId() & (ID_HASH_SIZE - 1);
+          this.nextById[i] = first[bucket];
+          first[bucket] = i;
+        }
+      }
+      this.firstById = first;
+    }
+    return this.firstById[sectorId & (ID_HASH_SIZE - 1)];
+  }
+
   /**
    * Change side of track and sectors.
    *
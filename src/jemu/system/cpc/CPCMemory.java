@@ -41,6 +41,9 @@ public class CPCMemory extends DynamicMemory {
   protected int upperROM = 0;
   protected int bankRAM = -1;
 
+  // Decoded code of the translating Z80, null when it isn't used
+  protected CodeCache code = null;
+
   protected static final int BASE_RAM       = 0;
   protected static final int BASE_LOWROM    = BASE_RAM + 9;
   protected static final int BASE_UPROM     = BASE_LOWROM + 1;
@@ -110,9 +113,23 @@ public class CPCMemory extends DynamicMemory {
       base = getMem(base,16 * 1024);
       System.arraycopy(data,0,mem,base,Math.min(16 * 1024,data.length));
     }
+    invalidateCode();
     remap();
   }
 
+  public void setCodeCache(CodeCache value) {
+    code = value;
+  }
+
+  /**
+   * Drops the decoded code after the memory has been changed without writeByte(),
+   * as when a snapshot is loaded.
+   */
+  public void invalidateCode() {
+    if (code != null)
+      code.clear();
+  }
+
   public void setLowerEnabled(boolean value) {
     if (lower != value) {
       lower = value;
@@ -120,6 +137,10 @@ public class CPCMemory extends DynamicMemory {
     }
   }
 
+  public boolean isLowerEnabled() {
+    return lower;
+  }
+
   public void setUpperEnabled(boolean value) {
     if (upper != value) {
       upper = value;
@@ -197,7 +218,10 @@ public class CPCMemory extends DynamicMemory {
   }
 
   public int writeByte(int address, int value) {
-    mem[writeMap[address >> 13] + (address & 0x1fff)] = (byte)value;
+    int addr = writeMap[address >> 13] + (address & 0x1fff);
+    mem[addr] = (byte)value;
+    if (code != null)
+      code.written(addr);
     return value & 0xff;
   }
 
@@ -229,6 +253,8 @@ public class CPCMemory extends DynamicMemory {
         readMap[7] = addr + 0x2000;
       }
     }
+    if (code != null)
+      code.map();
   }
 
   public void writePort(int port, int value) {
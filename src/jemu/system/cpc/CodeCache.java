@@ -0,0 +1,186 @@
+package jemu.system.cpc;
+
+/**
+ * Title:        JEMU
+ * Description:  Decoded Z80 code for the translating CPC Z80. Basic blocks are
+ *               decoded from the CPCMemory page they are read from, and the
+ *               operands of each instruction in them are kept so they don't have
+ *               to be fetched again each time the instruction runs.
+ *
+ * Units are stored by their offset in CPCMemory.mem, so a bank switch only changes
+ * which pages of units are mapped in and the units of the other banks are kept.
+ * A write through CPCMemory.writeByte() drops the units it overlaps, loading a ROM
+ * or a snapshot drops them all.
+ *
+ * Used when the system property jemu.z80.translate is set.
+ * @author
+ */
+
+public class CodeCache {
+
+  public static final String PROPERTY = "jemu.z80.translate";
+
+  public static boolean isSelected() {
+    return Boolean.getBoolean(PROPERTY);
+  }
+
+  protected static final int PAGE_SIZE = 0x2000;
+  protected static final int PAGE_SHIFT = 13;
+
+  // Operand bytes kept for each opcode, 0 for the ones run by the interpreter
+  protected static final byte[] OPERANDS = {
+    0, 2, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 1, 0,   // 00 .. 0F
+    1, 2, 0, 0, 0, 0, 1, 0, 1, 0, 0, 0, 0, 0, 1, 0,   // 10 .. 1F
+    1, 2, 2, 0, 0, 0, 1, 0, 1, 0, 2, 0, 0, 0, 1, 0,   // 20 .. 2F
+    1, 2, 2, 0, 0, 0, 1, 0, 1, 0, 2, 0, 0, 0, 1, 0,   // 30 .. 3F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 40 .. 4F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 50 .. 5F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 60 .. 6F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 70 .. 7F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 80 .. 8F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 90 .. 9F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // A0 .. AF
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // B0 .. BF
+    0, 0, 2, 2, 2, 0, 1, 0, 0, 0, 2, 0, 2, 2, 1, 0,   // C0 .. CF
+    0, 0, 2, 1, 2, 0, 1, 0, 0, 0, 2, 1, 2, 0, 1, 0,   // D0 .. DF
+    0, 0, 2, 0, 2, 0, 1, 0, 0, 0, 2, 0, 2, 0, 1, 0,   // E0 .. EF
+    0, 0, 2, 0, 2, 0, 1, 0, 0, 0, 2, 0, 2, 0, 1, 0    // F0 .. FF
+  };
+
+  // Opcodes a basic block ends with: jumps, calls, returns, HALT and prefixes
+  protected static final byte[] BLOCK_END = {
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 00 .. 0F
+    1, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0,   // 10 .. 1F
+    1, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0,   // 20 .. 2F
+    1, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0,   // 30 .. 3F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 40 .. 4F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 50 .. 5F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 60 .. 6F
+    0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 70 .. 7F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 80 .. 8F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // 90 .. 9F
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // A0 .. AF
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   // B0 .. BF
+    1, 0, 1, 1, 1, 0, 0, 1, 1, 1, 1, 1, 1, 1, 0, 1,   // C0 .. CF
+    1, 0, 1, 0, 1, 0, 0, 1, 1, 0, 1, 0, 1, 1, 0, 1,   // D0 .. DF
+    1, 0, 1, 0, 1, 0, 0, 1, 1, 1, 1, 0, 1, 1, 0, 1,   // E0 .. EF
+    1, 0, 1, 0, 1, 0, 0, 1, 1, 0, 1, 0, 1, 1, 0, 1    // F0 .. FF
+  };
+
+  /**
+   * An instruction decoded with its operand. Set invalid when the memory it was
+   * decoded from is written, it is then decoded again the next time it runs.
+   */
+  protected static class Unit {
+
+    protected final int opcode;
+    protected final int operand;
+    protected final int length;
+    protected boolean valid = true;
+
+    protected Unit(int opcode, int operand, int length) {
+      this.opcode = opcode;
+      this.operand = operand;
+      this.length = length;
+    }
+
+  }
+
+  protected CPCMemory memory;
+
+  // Units of each 8K page of CPCMemory.mem, null until code is run from the page
+  protected Unit[][] pages;
+
+  // Units of the pages mapped in for reading at #0000, #2000 .. #E000
+  protected Unit[][] mapped = new Unit[8][];
+
+  public CodeCache(CPCMemory memory) {
+    this.memory = memory;
+    clear();
+    memory.setCodeCache(this);
+  }
+
+  /**
+   * Drops all the units, for when the memory has been changed without
+   * CPCMemory.writeByte() or reallocated.
+   */
+  public void clear() {
+    pages = new Unit[(memory.getMemory().length + PAGE_SIZE - 1) >> PAGE_SHIFT][];
+    map();
+  }
+
+  /**
+   * Maps the units of the pages CPCMemory reads from, called when the RAM banks
+   * or the ROMs are switched.
+   */
+  public void map() {
+    int[] readMap = memory.readMap;
+    for (int i = 0; i < 8; i++)
+      mapped[i] = pages[readMap[i] >> PAGE_SHIFT];
+  }
+
+  /**
+   * Drops the units overlapping a byte written at the given offset in
+   * CPCMemory.mem.
+   */
+  public void written(int addr) {
+    Unit[] page = pages[addr >> PAGE_SHIFT];
+    if (page != null) {
+      int offset = addr & (PAGE_SIZE - 1);
+      for (int i = Math.max(0, offset - 2); i <= offset; i++) {
+        Unit unit = page[i];
+        if (unit != null && i + unit.length > offset) {
+          unit.valid = false;
+          page[i] = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the unit of the instruction at the given address, decoding the block
+   * starting there if it hasn't been. Returns null when the instruction has to be
+   * left to the interpreter, which is when its operand is in the next page.
+   */
+  public Unit get(int address, int opcode) {
+    Unit[] page = mapped[address >> PAGE_SHIFT];
+    if (page != null) {
+      Unit unit = page[address & (PAGE_SIZE - 1)];
+      if (unit != null && unit.opcode == opcode)
+        return unit;
+    }
+    return decode(address);
+  }
+
+  protected Unit decode(int address) {
+    int base = memory.readMap[address >> PAGE_SHIFT];
+    Unit[] page = pages[base >> PAGE_SHIFT];
+    if (page == null) {
+      page = pages[base >> PAGE_SHIFT] = new Unit[PAGE_SIZE];
+      map();
+    }
+    byte[] mem = memory.getMemory();
+    int start = address & (PAGE_SIZE - 1);
+    int offset = start;
+    page[start] = null;
+    while (offset < PAGE_SIZE) {
+      int opcode = mem[base + offset] & 0xff;
+      int operands = OPERANDS[opcode];
+      if (offset + operands >= PAGE_SIZE)
+        break;
+      if (operands != 0) {
+        if (offset != start && page[offset] != null)
+          break;        // The rest of the block has been decoded already
+        int operand = mem[base + offset + 1] & 0xff;
+        if (operands == 2)
+          operand |= (mem[base + offset + 2] & 0xff) << 8;
+        page[offset] = new Unit(opcode, operand, operands + 1);
+      }
+      if (BLOCK_END[opcode] != 0)
+        break;
+      offset += operands + 1;
+    }
+    return page[start];
+  }
+
+}
@@ -4,6 +4,7 @@ import java.awt.Dimension;
 
 import jemu.core.device.crtc.*;
 import jemu.core.renderer.MonitorRenderer;
+import jemu.ui.Display;
 import jemu.ui.Switches;
 
 /**
@@ -21,6 +22,17 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
   protected static final int HOFFSET  = 0x0b0000 - 0x800;    // Offset of monitor (half pixel adjust) 0xa80000
   protected static final int HOFFSEND = HOFFSET + 0x300000;  // End of offset
 
+  // Values of show
+  protected static final int BORDER = 0;
+  protected static final int SYNC   = 1;
+  protected static final int SCREEN = 2;
+
+  // Layout of a character in line: two screen bytes and the mode, or the ink
+  // number for border and sync, plus the range of pixels to draw
+  protected static final int CHAR_SCREEN = 0x40000;
+  protected static final int CHAR_FIRST  = 19;
+  protected static final int CHAR_LAST   = 24;
+
   protected static Dimension HALF_DISPLAY_SIZE = new Dimension(384,272);
   protected static Dimension FULL_DISPLAY_SIZE = new Dimension(768,272);
   static int returnmode = 0;
@@ -40,18 +52,16 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
   protected boolean inHSyncA	= false;
   protected boolean outHSync	= false;
   protected int[] inks		= new int[33];
-  protected byte[] fullMap;
-  protected byte[] halfMap;
   protected int offset		= 0;
   protected int scanStart		= 0;
   protected boolean scanStarted;
-  protected Renderer borderRenderer;
-  protected Renderer syncRenderer;
-  protected Renderer defRenderer;
-  protected Renderer startRenderer;
-  protected Renderer endRenderer;
-  protected Renderer renderer;
+  protected int show		= BORDER;  // What the current character shows
+  protected int charWidth		= 16;      // Pixels per character
   protected int endPix;
+  protected int[] line		= new int[128];  // Characters of the current scan line
+  protected int lineLength	= 0;
+  protected boolean[] dirtyRows;  // Display rows changed by flushLine()
+  protected int rowWidth;
   protected int selInk		= 0;
   protected boolean render	= true;
   protected boolean rendering	= true;
@@ -245,23 +255,16 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
                 0x707070  /*14*/
 	};      
                 
-  protected static final byte[][] fullMaps = new byte[4][];
-  protected static final byte[][] halfMaps = new byte[4][];
+  // Ink numbers of the pixels of one screen byte, 8 (full size) or 4 (half size)
+  // per byte. Both bytes of a character decode the same way, so 256 entries per
+  // mode are enough and the tables stay in the cache.
+  protected static final byte[][] fullMaps = new byte[4][256 * 8];
+  protected static final byte[][] halfMaps = new byte[4][256 * 4];
   static {
     for (int mode = 0; mode < 4; mode++) {
-      byte[] full = new byte[65536 * 16];
-      byte[] half = new byte[65536 * 8];
-      fullMaps[mode] = full;
-      halfMaps[mode] = half;
-      for (int i = 0; i < 65536 * 8;) {
-        int b1 = (i >> 3) & 0xff;
-        int b2 = (i >> 11) & 0xff;
-        decodeHalf(half,i,mode,b1);
-        decodeFull(full,i * 2,mode,b1);
-        i += 4;
-        decodeHalf(half,i,mode,b2);
-        decodeFull(full,i * 2,mode,b2);
-        i += 4;
+      for (int b = 0; b < 256; b++) {
+        decodeHalf(halfMaps[mode],b * 4,mode,b);
+        decodeFull(fullMaps[mode],b * 8,mode,b);
       }
     }
     for (int i = 0; i < maTranslate.length; i++) {
@@ -349,20 +352,33 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
 		setHalfSize(false);
   }
 
+  @Override
+  public void setDisplay(Display value) {
+    flushLine();
+    super.setDisplay(value);
+    dirtyRows = value.getDirtyRows();
+    rowWidth = value.getImageWidth();
+  }
+
+  @Override
+  public void setPixels(int[] value) {
+    flushLine();
+    super.setPixels(value);
+    dirtyRows = null;
+  }
+
   public void setHalfSize(boolean value) {
-    if (halfSize != value || defRenderer == null) {
+    if (halfSize != value) {
+      flushLine();
       halfSize = value;
-      defRenderer = halfSize ? (Renderer)new HalfRenderer() : new FullRenderer();
-      startRenderer = halfSize ? (Renderer)new HalfStartRenderer() : new FullStartRenderer();
-      endRenderer = halfSize ? (Renderer)new HalfEndRenderer() : new FullEndRenderer();
-      borderRenderer = new BorderRenderer(16,halfSize ? 8 : 16);
-      syncRenderer = new BorderRenderer(32,halfSize ? 8 : 16);
-      renderer = borderRenderer;
+      charWidth = halfSize ? 8 : 16;
+      show = BORDER;
     }
   }
 
   @Override
   public void reset() {
+    flushLine();
     r52 = 0;
     setScreenMode(1);
     for (int i = 0; i < 33; i++)
@@ -370,6 +386,17 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
     inks[0x10] = 0xff808080;
   }
 
+  /**
+   * Returns the interrupt and sync counters to their power on state, together with
+   * the CRTC counters they follow.
+   */
+  public void resetCounters() {
+    crtc.resetCounters();
+    r52 = vSyncInt = vSyncCount = hSyncCount = 0;
+    inHSyncA = outHSync = false;
+    setInterruptMask(0);
+  }
+
   public void setSelectedInk(int value) {
     selInk = (value & 0x1f) < 0x10 ? value & 0x0f : 0x10;
   }
@@ -379,6 +406,7 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
   }
   
   public void setInk(int index, int value) {
+      flushLine();
       CPCInks[index] = value;
          CPCInksb[index] = value;  
     if      (Switches.monitormode == 1)
@@ -391,6 +419,20 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
                   inks[index] = inkTranslateColor[value & 0x1f];
   }
 
+  /**
+   * Returns the RGB colours of the current monitor, followed by the black and grey
+   * of the inks at reset.
+   */
+  public static int[] getPalette() {
+    int[] table = Switches.monitormode == 1 ? inkTranslateLinear :
+      Switches.monitormode == 2 ? inkTranslateGreen :
+      Switches.monitormode == 3 ? inkTranslateBW : inkTranslateColor;
+    int[] result = new int[table.length + 2];
+    System.arraycopy(table, 0, result, 0, table.length);
+    result[table.length + 1] = 0x808080;
+    return result;
+  }
+
   public int getInk(int index){
       return CPCInks[index];
   }
@@ -407,6 +449,7 @@ public class GateArray extends MonitorRenderer implements CRTCListener {
         selInk = value < 0x10 ? value : 0x10;	
       } else 
       {
+         flushLine();  // Palette splits take effect from this character on
          CPCInks[selInk] = GAInks[value & 0x1f]; 
         if      (Switches.monitormode == 1)
           inks[selInk] = inkTranslateLinear[value & 0x1f];
@@ -455,8 +498,6 @@ public int getRAMBank(){
 
   protected void setScreenMode(int mode) {
     screenMode = mode;
-    fullMap = fullMaps[mode];
-    halfMap = halfMaps[mode];
   }
 
   public int getScreenMode(){
@@ -484,14 +525,15 @@ public int getRAMBank(){
           modeCheck();
     if (scanStarted) {
       if (hPos < HOFFSEND && doRender)
-        renderer.render();
+        addChar(0, charWidth);
       else {
-        endRenderer.render();
+        addChar(0, endPix);
         render = scanStarted = false;
       }
     }
     else if (render && hPos >= HOFFSET) {
-      startRenderer.render();
+      endPix = halfSize ? 8 - (((hPos - HOFFSET) >> 13) & 0x07) : 16 - (((hPos - HOFFSET) >> 12) & 0x0f);
+      addChar(endPix, charWidth);
       scanStarted = true;
     }
 
@@ -527,11 +569,12 @@ public int getRAMBank(){
    // System.out.println(hSyncCount);
     hSyncCount = 0;
     inHSyncA = true;
-    renderer = syncRenderer;
+    show = SYNC;
   }
 
   @Override
   public void hSync() {
+    flushLine();
     if (render = rendering && (monitorLine >= -4 && monitorLine < 268)) {
       offset = scanStart;
       scanStart += halfSize ? 384 : 768;
@@ -557,24 +600,22 @@ public int getRAMBank(){
         setInterruptMask(interruptMask | 0x80);
       r52 = 0;
     }
-    renderer = vSyncCount > 0 ? syncRenderer :
-      (crtc.isVDisp() && crtc.isHDisp() ? defRenderer : borderRenderer);
+    show = vSyncCount > 0 ? SYNC : (crtc.isVDisp() && crtc.isHDisp() ? SCREEN : BORDER);
   }
 
   public void hDispEnd() {
-    renderer = vSyncCount > 0 || crtc.isHSync() ? syncRenderer : borderRenderer;
+    show = vSyncCount > 0 || crtc.isHSync() ? SYNC : BORDER;
   }
 
   public void hDispStart() {
-    renderer = vSyncCount > 0 || crtc.isHSync() ? syncRenderer :
-      (crtc.isVDisp() ? defRenderer : borderRenderer);
+    show = vSyncCount > 0 || crtc.isHSync() ? SYNC : (crtc.isVDisp() ? SCREEN : BORDER);
   }
 
   @Override
   public void vSyncStart() {
     super.vSyncStart();
     vSyncCount = 32;
-    renderer = syncRenderer;
+    show = SYNC;
     vSyncInt = 2;
   }
 
@@ -584,6 +625,7 @@ public int getRAMBank(){
 
   @Override
   public void vSync(boolean interlace) {
+    flushLine();
     scanStart = offset = 0;
     cpc.vSync();
   }
@@ -608,152 +650,88 @@ public int getRAMBank(){
   
   public void cursor() { }  // Not used on CPC
 
-  protected abstract class Renderer {
-    public void render() { }
-  }
-
-  protected class BorderRenderer extends Renderer {
-
-    protected int ink;
-    protected int width;
-
-    public BorderRenderer(int ink, int width) {
-      this.ink = ink;
-      this.width = width;
-    }
-
-  @Override
-    public void render() {
-      int pix = inks[ink];
-      for (int i = 0; i < width; i++)
-        pixels[offset++] = pix;
-    }
-  }
-
-  protected class HalfRenderer extends Renderer {
-
-  @Override
-    public void render() {
-      int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);
-      int val = ((memory[addr] & 0xff) << 3) + ((memory[addr + 1] & 0xff) << 11);  // Base always even
-      for (int i = 0; i < 8; i++)
-        pixels[offset++] = inks[halfMap[val++]];
-    }
-
-  }
-
-  protected class FullRenderer extends Renderer {
-
-  @Override
-    public void render() {
-      int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);
-      int val = ((memory[addr] & 0xff) << 4) + ((memory[addr + 1] & 0xff) << 12);  // Base always even
-      for (int i = 0; i < 16; i++)
-        pixels[offset++] = inks[fullMap[val++]];
-    }
-
-  }
-  
-  protected class HalfStartRenderer extends Renderer {
-
-  @Override
-    public void render() {
-      endPix = 8 - (((hPos - HOFFSET) >> 13) & 0x07);
-      if (renderer == borderRenderer) {
-        int pix = inks[16];
-        for (int i = endPix; i < 8; i++)
-            if (doRender)
-          pixels[offset++] = pix;
-      }
-      else if (renderer == defRenderer) {
-        int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);
-        int val = ((memory[addr] & 0xff) << 3) + ((memory[addr + 1] & 0xff) << 11) + endPix;  // Base always even
-        for (int i = endPix; i < 8; i++)
-          pixels[offset++] = inks[halfMap[val++]];
-      }
-      else {
-        int pix = inks[32];
-        for (int i = endPix; i < 8; i++)
-          pixels[offset++] = pix;
-      }
-    }
-    
-  }
-  
-  protected class HalfEndRenderer extends Renderer {
-
-  @Override
-    public void render() {
-      if (renderer == borderRenderer) {
-        int pix = inks[16];
-        for (int i = 0; i < endPix; i++)
-            if (doRender)
-          pixels[offset++] = pix;
-      }
-      else if (renderer == defRenderer) {
-        int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);
-        int val = ((memory[addr] & 0xff) << 3) + ((memory[addr + 1] & 0xff) << 11);  // Base always even
-        for (int i = 0; i < endPix; i++)
-          pixels[offset++] = inks[halfMap[val++]];
-      }
-      else {
-        int pix = inks[32];
-        for (int i = 0; i < endPix; i++)
-          pixels[offset++] = pix;
-      }
+  /**
+   * Adds pixels first to last - 1 of the current character to the scan line.
+   * Only the screen bytes and mode are taken here, the pixels are drawn by
+   * flushLine() once the line is complete.
+   *
+   * @param first first pixel
+   * @param last end pixel
+   */
+  protected final void addChar(int first, int last) {
+    int value;
+    if (show == SCREEN) {
+      int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);  // Base always even
+      value = CHAR_SCREEN | (screenMode << 16) | (memory[addr] & 0xff) | ((memory[addr + 1] & 0xff) << 8);
     }
-    
-  }
-  
-  protected class FullStartRenderer extends Renderer {
-
-  @Override
-    public void render() {
-      endPix = 16 - (((hPos - HOFFSET) >> 12) & 0x0f);
-      if (renderer == borderRenderer) {
-        int pix = inks[16];
-        for (int i = endPix; i < 16; i++)
-            if (doRender)
+    else if (show == SYNC)
+      value = 32;
+    else if (doRender)
+      value = 16;
+    else
+      return;
+    line[lineLength++] = value | (first << CHAR_FIRST) | (last << CHAR_LAST);
+    if (lineLength == line.length)
+      flushLine();
+  }
+
+  /**
+   * Draws the characters added since the last call with the current inks. Called
+   * at the end of each scan line and before anything the pending characters
+   * depend on changes: inks, pixel size or the pixel buffer. Rows where a pixel
+   * changed are marked in the Display's dirty rows.
+   */
+  public void flushLine() {
+    int[] pixels = this.pixels;
+    int[] inks = this.inks;
+    int shift = halfSize ? 2 : 3;
+    int mask = (1 << shift) - 1;
+    int offset = this.offset;
+    int diff = 0;
+    for (int i = 0; i < lineLength; i++) {
+      int value = line[i];
+      int first = (value >> CHAR_FIRST) & 0x1f;
+      int last = (value >> CHAR_LAST) & 0x1f;
+      if ((value & CHAR_SCREEN) == 0) {
+        int pix = inks[value & 0x3f];
+        for (; first < last; first++) {
+          diff |= pixels[offset] ^ pix;
           pixels[offset++] = pix;
-      }
-      else if (renderer == defRenderer) {
-        int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);
-        int val = ((memory[addr] & 0xff) << 4) + ((memory[addr + 1] & 0xff) << 12) + endPix;  // Base always even
-        for (int i = endPix; i < 16; i++)
-          pixels[offset++] = inks[fullMap[val++]];
+        }
       }
       else {
-        int pix = inks[32];
-        for (int i = endPix; i < 16; i++)
-          pixels[offset++] = pix;
+        byte[] map = halfSize ? halfMaps[(value >> 16) & 0x03] : fullMaps[(value >> 16) & 0x03];
+        int val = (value & 0xff) << shift;
+        if (first == 0 && last == charWidth) {
+          int end = offset + (last >> 1);
+          while (offset < end) {
+            int pix = inks[map[val++]];
+            diff |= pixels[offset] ^ pix;
+            pixels[offset++] = pix;
+          }
+          val = ((value >> 8) & 0xff) << shift;
+          end += last >> 1;
+          while (offset < end) {
+            int pix = inks[map[val++]];
+            diff |= pixels[offset] ^ pix;
+            pixels[offset++] = pix;
+          }
+        }
+        else {
+          for (; first < last; first++) {
+            int pix = inks[map[(((value >> ((first >> shift) << 3)) & 0xff) << shift) + (first & mask)]];
+            diff |= pixels[offset] ^ pix;
+            pixels[offset++] = pix;
+          }
+        }
       }
     }
-    
-  }
-
-  protected class FullEndRenderer extends Renderer {
-
-  @Override
-    public void render() {
-      if (renderer == borderRenderer) {
-        int pix = inks[16];
-        for (int i = 0; i < endPix; i++)
-            if (doRender)
-          pixels[offset++] = pix;
-      }
-      else if (renderer == defRenderer) {
-        int addr = maTranslate[crtc.getMA()] + ((crtc.getRA() & 0x07) << 11);
-        int val = ((memory[addr] & 0xff) << 4) + ((memory[addr + 1] & 0xff) << 12);  // Base always even
-        for (int i = 0; i < endPix; i++)
-          pixels[offset++] = inks[fullMap[val++]];
-      }
-      else {
-        int pix = inks[32];
-        for (int i = 0; i < endPix; i++)
-          pixels[offset++] = pix;
-      }
+    if (diff != 0 && dirtyRows != null) {
+      for (int row = this.offset / rowWidth; row <= (offset - 1) / rowWidth; row++)
+        dirtyRows[row] = true;
     }
-    
+    this.offset = offset;
+    lineLength = 0;
   }
 
   public void resetInks(){
@@ -0,0 +1,180 @@
+package jemu.system.cpc;
+
+import java.io.*;
+
+/**
+ * Title:        JavaCPC
+ * Description:  Keyboard input recording for SNK files.
+ *
+ * Reads of the keyboard matrix through PSG port A are logged against a time, which
+ * is the emulated cycle count since the recording started, or the number of reads
+ * for older recordings. Only reads that return a different value for their row than
+ * the previous read of that row are stored. An event is a varint of (time since the
+ * previous event << 4 | row) followed by the row value, so an idle keyboard costs
+ * nothing and a held key costs two events. Events carry their row so playback can
+ * seek without the emulation having run up to the position.
+ *
+ * Old SNK files stored one byte per read without the row, they are loaded as an
+ * unkeyed log where every read returns the value of the last event.
+ *
+ * @author
+ */
+
+public class InputLog {
+
+  protected byte[] data = new byte[4096];
+  protected int length = 0;                 // Bytes of event data
+  protected long end = 0;                   // Time after the last read recorded
+  protected boolean keyed = true;           // False for logs converted from raw reads
+  protected int[] rows = new int[16];
+
+  // Recording
+  protected long lastEvent = 0;             // Time of the last event
+
+  // Playback
+  protected int offset = 0;                 // Offset of the next event in data
+  protected long nextEvent = -1;            // Time of the next event, -1 when none
+  protected int nextRow = 0;
+
+  public InputLog() {
+    clear();
+  }
+
+  /**
+   * Empties the log for a new recording.
+   */
+  public void clear() {
+    length = 0;
+    end = 0;
+    keyed = true;
+    lastEvent = 0;
+    rewind();
+  }
+
+  /**
+   * Records a read of the keyboard matrix.
+   *
+   * @param time time of the read, never less than the time of the previous read
+   * @param row selected row
+   * @param value value returned for the row
+   */
+  public void record(long time, int row, int value) {
+    row &= 0x0f;
+    value &= 0xff;
+    if (rows[row] != value) {
+      rows[row] = value;
+      if (length + 12 > data.length) {
+        byte[] grown = new byte[data.length * 2];
+        System.arraycopy(data, 0, grown, 0, length);
+        data = grown;
+      }
+      long code = (time - lastEvent) << 4 | row;
+      while ((code & ~0x7fL) != 0) {
+        data[length++] = (byte)(code | 0x80);
+        code >>>= 7;
+      }
+      data[length++] = (byte)code;
+      data[length++] = (byte)value;
+      lastEvent = time;
+    }
+    end = time + 1;
+  }
+
+  /**
+   * Returns the recorded value of a read.
+   *
+   * @param time time of the read, never less than the time of the previous read
+   * @param row selected row
+   */
+  public int play(long time, int row) {
+    while (nextEvent >= 0 && nextEvent <= time) {
+      rows[nextRow] = data[offset++] & 0xff;
+      readEvent(nextEvent);
+    }
+    return rows[keyed ? row & 0x0f : 0];
+  }
+
+  /**
+   * Returns true when time is past the last read recorded.
+   */
+  public boolean isFinished(long time) {
+    return time >= end;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  /**
+   * Returns to the start of the log for playback.
+   */
+  public void rewind() {
+    for (int i = 0; i < rows.length; i++)
+      rows[i] = 0xff;
+    offset = 0;
+    readEvent(0);
+  }
+
+  /**
+   * Moves playback to a time, applying all events before it. The emulation has to
+   * be brought to the same time for the reads to match the recording.
+   */
+  public void seek(long time) {
+    rewind();
+    while (nextEvent >= 0 && nextEvent < time) {
+      rows[nextRow] = data[offset++] & 0xff;
+      readEvent(nextEvent);
+    }
+  }
+
+  protected void readEvent(long previous) {
+    if (offset >= length) {
+      nextEvent = -1;
+      return;
+    }
+    long code = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = data[offset++];
+      code |= (long)(b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        break;
+    }
+    nextRow = (int)code & 0x0f;
+    nextEvent = previous + (code >>> 4);
+  }
+
+  /**
+   * Converts one byte per read, as stored by old SNK files, into events keyed by the
+   * read number.
+   */
+  public void setRaw(byte[] raw, int start, int count) {
+    clear();
+    for (int i = 0; i < count; i++)
+      record(i, 0, raw[start + i]);
+    keyed = false;
+    rewind();
+  }
+
+  /**
+   * Loads events written by write().
+   */
+  public void setEvents(byte[] events, int start, int count, long endTime) {
+    if (count > data.length)
+      data = new byte[count];
+    System.arraycopy(events, start, data, 0, count);
+    length = count;
+    end = endTime;
+    keyed = true;
+    lastEvent = 0;
+    rewind();
+  }
+
+  public int getEventLength() {
+    return length;
+  }
+
+  public void write(OutputStream out) throws IOException {
+    out.write(data, 0, length);
+  }
+
+}
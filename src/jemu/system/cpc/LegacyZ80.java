@@ -0,0 +1,188 @@
+package jemu.system.cpc;
+
+/**
+ * Title:        JEMU
+ * Description:  CPC Z80 computing the flags the way it did before the SZP table
+ *               was added, for checking the table driven flags against. Used
+ *               instead of Z80 when the system property jemu.z80.legacy is set.
+ * @author
+ */
+
+public class LegacyZ80 extends Z80 {
+
+  public static final String PROPERTY = "jemu.z80.legacy";
+
+  public static boolean isSelected() {
+    return Boolean.getBoolean(PROPERTY);
+  }
+
+  public LegacyZ80(long cyclesPerSecond) {
+    super(cyclesPerSecond);
+  }
+
+  @Override
+  protected void andan(int n) {
+    int a = reg[A] = reg[A] & n;
+    int f = a & 0xa8 | FH | PARITY[a];
+    reg[F] = a == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected void oran(int n) {
+    int a = reg[A] = reg[A] | n;
+    int f = a & 0xa8 | PARITY[a];
+    reg[F] = a == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected void xoran(int n) {
+    int a = reg[A] = reg[A] ^ n;
+    int f = a & 0xa8 | PARITY[a];
+    reg[F] = a == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected void rld() {
+    int a = reg[A];
+    int hl = getqq(HL);
+    int b = readByte(hl);
+    writeByte(hl,((b << 4) | (a & 0x0f)) & 0xff);
+    reg[A] = a = (a & 0xf0) | ((b >> 4) & 0x0f);
+    int f = (reg[F] & FLAG_MASK_RLD) | (a & (FS | F5 | F3)) | PARITY[a];
+    reg[F] = a == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected void rrd() {
+    int a = reg[A];
+    int hl = getqq(HL);
+    int b = readByte(hl);
+    writeByte(hl,((a << 4) & 0xf0) | ((b >> 4) & 0x0f));
+    reg[A] = a = (a & 0xf0) | (b & 0x0f);
+    int f = (reg[F] & FLAG_MASK_RLD) | (a & (FS | F5 | F3)) | PARITY[a];
+    reg[F] = a == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected void inrc(int opcode) {
+    int r = (opcode & 0x38) >> 3;
+    int result = reg[r] = in(getqq(BC));
+    int f = (reg[F] & FLAG_MASK_IN) | (result & (FS | F5 | F3)) | PARITY[result];
+    reg[F] = result == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected void inc() {
+    int result = in(getqq(BC));
+    int f = (reg[F] & FLAG_MASK_IN) | (result & (FS | F5 | F3)) | PARITY[result];
+    reg[F] = result == 0 ? f | FZ : f;
+  }
+
+  @Override
+  protected int incn(int n) {
+    n = (n + 1) & 0xff;
+    int f = n & 0xa8 | (reg[F] & FC);
+    if ((n & 0x0f) == 0)
+      f |= FH;
+    if (n == 0x80)
+      f |= FPV;
+    else if (n == 0)
+      f |= FZ;
+    reg[F] = f;
+    return n;
+  }
+
+  @Override
+  protected int decn(int n) {
+    n = (n - 1) & 0xff;
+    int f = n & 0xa8 | (reg[F] & FC) | FN;
+    if ((n & 0x0f) == 0x0f)
+      f |= FH;
+    if (n == 0x7f)
+      f |= FPV;
+    else if (n == 0)
+      f |= FZ;
+    reg[F] = f;
+    return n;
+  }
+
+  @Override
+  protected int rlcn(int n) {
+    int c = (n & 0x80) == 0 ? 0 : 1;
+    n = ((n << 1) | c) & 0xff;
+    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
+    reg[F] = n == 0 ? f | FZ : f;
+    return n;
+  }
+
+  @Override
+  protected int rln(int n) {
+    int f = reg[F];
+    n = (n << 1) | (f & FC);
+    f = (n & (FS | F5 | F3));
+    if ((n & 0x100) != 0)
+      f |= FC;
+    n &= 0xff;
+    reg[F] = (n == 0 ? f | FZ : f) | PARITY[n];
+    return n;
+  }
+
+  @Override
+  protected int rrcn(int n) {
+    int c = n & 0x01;
+    n = ((n >> 1) | (c << 7)) & 0xff;
+    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
+    reg[F] = n == 0 ? f | FZ : f;
+    return n;
+  }
+
+  @Override
+  protected int rrn(int n) {
+    int c = n & 0x01;
+    n = ((reg[F] & FC) == 0 ? n >> 1 : (n >> 1) | 0x80) & 0xff;
+    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
+    reg[F] = n == 0 ? f | FZ : f;
+    return n;
+  }
+
+  @Override
+  protected int slan(int n) {
+    n <<= 1;
+    int f = n & (FS | F5 | F3);
+    if ((n & 0x100) != 0)
+      f |= FC;
+    n &= 0xff;
+    reg[F] = (n == 0 ? f | FZ : f) | PARITY[n];
+    return n;
+  }
+
+  @Override
+  protected int slln(int n) {
+    n = (n << 1) | 1;
+    int f = n & (FS | F5 | F3);
+    if ((n & 0x100) != 0)
+      f |= FC;
+    n &= 0xff;
+    reg[F] = (n == 0 ? f | FZ : f) | PARITY[n];
+    return n;
+  }
+
+  @Override
+  protected int sran(int n) {
+    int c = n & 0x01;
+    n = (n >> 1) | (n & 0x80);
+    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
+    reg[F] = n == 0 ? f | FZ : f;
+    return n;
+  }
+
+  @Override
+  protected int srln(int n) {
+    int c = n & 0x01;
+    n >>= 1;
+    int f = (n & (FS | F5 | F3)) | c | PARITY[n];
+    reg[F] = n == 0 ? f | FZ : f;
+    return n;
+  }
+
+}
@@ -120,10 +120,128 @@ public class Z80 extends jemu.core.cpu.Z80 {
     1, 1, 2, 2, 1, 2, 1, 1, 2, 2, 2, 0, 0, 5, 1
   };
 
+  // Decoded operands of the code run, null when the instructions are only interpreted
+  protected CodeCache code = null;
+
   public Z80(long cyclesPerSecond) {
     super(cyclesPerSecond);
   }
 
+  public void setCodeCache(CodeCache value) {
+    code = value;
+  }
+
+  /**
+   * Runs instructions with operands from their decoded unit when there is a code
+   * cache, the others and the prefixed ones are interpreted.
+   */
+  @Override
+  protected void stepOpCode(int opcode) {
+    CodeCache.Unit unit;
+    if (code == null || CodeCache.OPERANDS[opcode] == 0 ||
+      (unit = code.get((PC - 1) & 0xffff, opcode)) == null)
+      step(opcode);
+    else {
+      boolean oldIFF = IFF1;
+      noWait = false;
+      execute(unit);
+      interruptExecute = (interruptPending != 0) && oldIFF && IFF1;
+    }
+  }
+
+  /**
+   * Same as executeNormal() for an instruction with operands, using the operand
+   * decoded with the unit. The timing is the same too, PC only moves past the
+   * operand after the pre-execute cycles.
+   */
+  protected void execute(CodeCache.Unit unit) {
+    int opcode = unit.opcode;
+    cycle(timePre[opcode]);
+    R++;
+    int operand = unit.valid ? unit.operand :   // operand written during the cycles
+      unit.length == 2 ? readByte(PC) : readWord(PC);
+    PC = (PC + unit.length - 1) & 0xffff;
+    switch(opcode) {
+      case 0x01:
+      case 0x11:
+      case 0x21:
+      case 0x31: ldddnn(opcode, operand);         break;
+
+      case 0x06:
+      case 0x0e:
+      case 0x16:
+      case 0x1e:
+      case 0x26:
+      case 0x2e:
+      case 0x3e: ldrn(opcode, operand);           break;
+
+      case 0x10: djnze((byte)operand);            break;
+
+      case 0x18: jre((byte)operand);              break;
+
+      case 0x20: jrnze((byte)operand);            break;
+
+      case 0x22: ldxxhl(operand);                 break;
+
+      case 0x28: jrze((byte)operand);             break;
+
+      case 0x2a: ldhlxx(operand);                 break;
+
+      case 0x30: jrnce((byte)operand);            break;
+
+      case 0x32: ldxxa(operand);                  break;
+
+      case 0x36: ldhln(operand);                  break;
+
+      case 0x38: jrce((byte)operand);             break;
+
+      case 0x3a: ldaxx(operand);                  break;
+
+      case 0xc2:
+      case 0xca:
+      case 0xd2:
+      case 0xda:
+      case 0xe2:
+      case 0xea:
+      case 0xf2:
+      case 0xfa: jpccnn(opcode, operand);         break;
+
+      case 0xc3: jpnn(operand);                   break;
+
+      case 0xc4:
+      case 0xcc:
+      case 0xd4:
+      case 0xdc:
+      case 0xe4:
+      case 0xec:
+      case 0xf4:
+      case 0xfc: callccnn(opcode, operand);       break;
+
+      case 0xc6: addan(operand);                  break;
+
+      case 0xcd: callnn(operand);                 break;
+
+      case 0xce: adcan(operand);                  break;
+
+      case 0xd3: outna(operand);                  break;
+
+      case 0xd6: suban(operand);                  break;
+
+      case 0xdb: inan(operand);                   break;
+
+      case 0xde: sbcan(operand);                  break;
+
+      case 0xe6: andan(operand);                  break;
+
+      case 0xee: xoran(operand);                  break;
+
+      case 0xf6: oran(operand);                   break;
+
+      case 0xfe: cpan(operand);                   break;
+    }
+    cycle(timePost[opcode]);
+  }
+
   protected void setTimes() {
     setTimes(CPC_TIME_PRE, CPC_TIME_POST, CPC_TIME_PRE_CB, CPC_TIME_POST_CB,
       CPC_TIME_PRE_ED, CPC_TIME_POST_ED, CPC_TIME_EXTRA);
@@ -0,0 +1,108 @@
+package jemu.ui;
+
+import jemu.core.device.Computer;
+
+/**
+ * Title:        JEMU
+ * Description:  Headless batch runner. Boots a computer without any user interface,
+ *               optionally loads a disc, tape or snapshot image, types scripted keys
+ *               and runs for a fixed emulated time as fast as the host allows.
+ *
+ * Usage: java -cp JavaCPC.jar jemu.ui.Batch [-system CPC6128] [-frames n | -cycles n]
+ *          [-boot n] [-type text] [file ...]
+ *
+ * Each file is run in its own, freshly created computer. Without files the computer is
+ * only booted. In the -type text "\n" stands for RETURN.
+ *
+ * @author
+ * @version 1.0
+ */
+
+public class Batch {
+
+  public static final int FRAMES_PER_SECOND = 50;
+
+  protected String system = Computer.DEFAULT_COMPUTER;
+  protected long frames = 50 * 60;
+  protected long cycles = -1;
+  protected long bootFrames = 100;
+  protected String type = null;
+
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    Switches.warp = true;     // Nobody listens, so do not even synthesise the sound
+    Batch batch = new Batch();
+    java.util.Vector<String> names = new java.util.Vector<String>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if (arg.equalsIgnoreCase("-system"))
+          batch.system = args[++i];
+        else if (arg.equalsIgnoreCase("-frames"))
+          batch.frames = Long.parseLong(args[++i]);
+        else if (arg.equalsIgnoreCase("-cycles"))
+          batch.cycles = Long.parseLong(args[++i]);
+        else if (arg.equalsIgnoreCase("-boot"))
+          batch.bootFrames = Long.parseLong(args[++i]);
+        else if (arg.equalsIgnoreCase("-type"))
+          batch.type = args[++i].replace("\\n", "\n");
+        else
+          names.addElement(arg);
+      }
+    } catch (Exception e) {
+      System.out.println("Usage: jemu.ui.Batch [-system name] [-frames n | -cycles n] " +
+        "[-boot n] [-type text] [file ...]");
+      System.exit(1);
+    }
+    int failed = 0;
+    if (names.isEmpty())
+      names.addElement(null);
+    for (int i = 0; i < names.size(); i++) {
+      if (!batch.run(names.elementAt(i)))
+        failed++;
+    }
+    System.exit(failed == 0 ? 0 : 2);
+  }
+
+  /**
+   * Creates a computer, runs one image on it and disposes it again.
+   *
+   * @param name Image file to load after boot, or null
+   * @return true if the run finished without exception
+   */
+  public boolean run(String name) {
+    Computer computer = null;
+    long start = System.currentTimeMillis();
+    try {
+      computer = Computer.createComputer(null, system);
+      computer.initialise();
+      long perFrame = computer.getProcessor().getCyclesPerSecond() / FRAMES_PER_SECOND;
+      long budget = cycles >= 0 ? cycles : frames * perFrame;
+      long boot = Math.min(budget, bootFrames * perFrame);
+      long begin = computer.getProcessor().getCycles();
+      computer.runFor(boot);
+      if (name != null) {
+        Switches.loaded = true;
+        computer.loadFile(Computer.TYPE_UNKNOWN, name);
+      }
+      if (type != null)
+        computer.AutoType(type);
+      computer.runFor(budget - boot);
+      long ran = computer.getProcessor().getCycles() - begin;
+      long time = Math.max(1, System.currentTimeMillis() - start);
+      double seconds = (double)ran / computer.getProcessor().getCyclesPerSecond();
+      System.out.println("Batch: " + (name == null ? system : name) + " ran " + ran +
+        " cycles (" + (ran / perFrame) + " frames, " + seconds + "s) in " + time + "ms, " +
+        (int)(seconds * 1000 / time) + "x real time");
+      return true;
+    } catch (Exception e) {
+      System.out.println("Batch: " + name + " failed");
+      e.printStackTrace();
+      return false;
+    } finally {
+      if (computer != null)
+        computer.dispose();
+    }
+  }
+
+}
@@ -150,12 +150,17 @@ final Cursor gunCursor;
 GraphicsDevice gs = ge.getDefaultScreenDevice();
 GraphicsConfiguration gc = gs.getDefaultConfiguration();
   protected boolean scanlines, drawlines, showeffect;
+  protected BufferedImage scanOverlay, maskOverlay;  // Overlays cached for imageRect
+  protected boolean scanVertical, maskBilinear;
+  protected Color scanColor;
+  protected Image maskSource;
   public static String monmessage           = "Colour monitor"; // Message which monitor (CPC)
   public static String automessage          = "Autosave is OFF";
   public static int showmon                 = 250;
   public static int showauto                = 250;
   public static int showpause               = 0;
   public static int showfps                 = 0;
+  public static double warpMHz              = 0;    // Speed reached in warp mode
   public static int showmodel               = 0;
   protected int timer = 0;
   public static String model;
@@ -183,10 +188,19 @@ GraphicsConfiguration gc = gs.getDefaultConfiguration();
   public static final Dimension SCALE_2     = new Dimension(2,2);
   public static final Dimension SCALE_1x2   = new Dimension(1,2);
 
-  protected BufferedImage image;
-  protected WritableRaster raster;
+  protected BufferedImage image;                       // Frame being painted
+  protected BufferedImage[] frames = new BufferedImage[3];  // Front, ready and back frames
+  protected boolean[][] frameDirty;                    // Rows each frame is missing
+  protected int backFrame = 0;                         // Filled by the emulation thread
+  protected int frontFrame = 2;                        // Painted by the event dispatch thread
+  protected final java.util.concurrent.atomic.AtomicInteger readyFrame =
+    new java.util.concurrent.atomic.AtomicInteger(1);  // Latest frame, | FRESH_FRAME until painted
+  protected static final int FRESH_FRAME = 0x04;
   protected int[] pixels;
+  protected volatile jemu.ui.gfx.FrameCapture capture;
   protected int imageWidth, imageHeight;
+  protected boolean[] dirtyRows;  // Rows changed since the last upload, null if not tracked
+  protected Raster source;        // Raster over pixels to copy dirty rows from
   protected int scaleWidth, scaleHeight, scaleW, scaleH;
   public static Rectangle imageRect = new Rectangle();
   public static Rectangle sourceRect = null;             // Source rectangle in image
@@ -222,12 +236,21 @@ setCursor(blankCursor);
   public void setImageSize(Dimension size, Dimension scale) {
     imageWidth = size.width;
     imageHeight = size.height;
-    image = new BufferedImage(imageWidth,imageHeight,BufferedImage.TYPE_INT_RGB);
-    image.setAccelerationPriority(1);
-    raster = image.getRaster();
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = new BufferedImage(imageWidth,imageHeight,BufferedImage.TYPE_INT_RGB);
+      frames[i].setAccelerationPriority(1);
+    }
+    frameDirty = new boolean[frames.length][imageHeight];
+    backFrame = 0;
+    readyFrame.set(1);
+    frontFrame = 2;
+    image = frames[frontFrame];
     pixels = new int[imageWidth * imageHeight];
     for (int i = 0; i < pixels.length; i++)
       pixels[i] = 0xff000000;
+    dirtyRows = null;
+    source = Raster.createPackedRaster(new DataBufferInt(pixels,pixels.length),imageWidth,
+      imageHeight,imageWidth,new int[] { 0xff0000, 0x00ff00, 0x0000ff },null);
     if (scale == null) scale = SCALE_1;
     scaleWidth = imageWidth * scale.width;
     scaleHeight = imageHeight * scale.height;
@@ -327,16 +350,93 @@ setCursor(blankCursor);
     sourceRect = value;
   }
 
+  /**
+   * Returns flags the renderer sets for each row of pixels it changes. Once these
+   * are used, updateImage() only uploads and repaints the changed rows.
+   */
+  public boolean[] getDirtyRows() {
+    if (dirtyRows == null) {
+      dirtyRows = new boolean[imageHeight];
+      java.util.Arrays.fill(dirtyRows, true);
+    }
+    return dirtyRows;
+  }
+
+  /**
+   * Hands the current pixels to the event dispatch thread and requests a repaint.
+   * The emulation thread copies the changed rows into the back frame and swaps it
+   * with the ready frame; paintComponent() swaps the ready frame with the one it
+   * paints. Neither side waits for the other, frames the display has no time for
+   * are replaced by newer ones.
+   *
+   * @param wait true to wait until the frame has been painted
+   */
   public void updateImage(boolean wait) {
+    jemu.ui.gfx.FrameCapture capture = this.capture;
+    if (capture != null)
+      capture.addFrame(pixels);
     painted = false;
     if (imageRect.width != 0 && imageRect.height != 0 && isShowing()) {
-      raster.setDataElements(0,0,imageWidth,imageHeight,pixels);
-      repaint(0,imageRect.x,imageRect.y,imageRect.width,imageRect.height);
+      publishFrame();
       if (wait)
         waitPainted();
     }
   }
 
+  protected void publishFrame() {
+    WritableRaster raster = frames[backFrame].getRaster();
+    int top = 0, bottom = imageHeight;
+    if (dirtyRows == null)
+      raster.setDataElements(0,0,imageWidth,imageHeight,pixels);
+    else {
+      top = imageHeight;
+      bottom = -1;
+      for (int y = 0; y < imageHeight; y++) {
+        if (dirtyRows[y]) {
+          dirtyRows[y] = false;
+          for (int i = 0; i < frames.length; i++)
+            frameDirty[i][y] = true;
+          top = Math.min(top,y);
+          bottom = y + 1;
+        }
+      }
+      // The back frame also lacks the rows changed while it was ready or painted
+      boolean[] missing = frameDirty[backFrame];
+      for (int y = 0; y < imageHeight; y++) {
+        if (missing[y]) {
+          int end = y;
+          while (end < imageHeight && missing[end])
+            missing[end++] = false;
+          raster.setDataElements(0,y,source.createChild(0,y,imageWidth,end - y,0,0,null));
+          y = end;
+        }
+      }
+    }
+    backFrame = readyFrame.getAndSet(backFrame | FRESH_FRAME) & 0x03;
+    if (dirtyRows == null || sourceRect != null || isOverlayChanging())
+      repaint(0,imageRect.x,imageRect.y,imageRect.width,imageRect.height);
+    else if (bottom < 0)
+      // Nothing changed, but paintImage() still has to run for its timers
+      repaint(0,imageRect.x,imageRect.y,1,1);
+    else {
+      // One row either side for filtering when scaled
+      int y1 = imageRect.y + Math.max(0,top - 1) * imageRect.height / imageHeight;
+      int y2 = imageRect.y + (Math.min(imageHeight,bottom + 1) * imageRect.height + imageHeight - 1) / imageHeight;
+      repaint(0,imageRect.x,y1,imageRect.width,y2 - y1);
+    }
+  }
+
+  /**
+   * Returns true if paintImage() draws anything over the image that changes from
+   * frame to frame, such as the drive LED, FPS or messages.
+   */
+  protected boolean isOverlayChanging() {
+    return led > 0 || ledOn || showfps != 0 || Switches.warp || txtpos > 0 ||
+      atmessage > 0 || loadtimer > 0 || fader >= 24 || fader <= -24 ||
+      (Switches.osddisplay && (showmon >= 0 || showmodel >= 0)) ||
+      jemu.system.cpc.CPC.YM_Play || jemu.system.cpc.CPC.YM_Rec;
+  }
+
   public boolean processGun(){
       System.out.println("Colour is:"  + Util.hex(image.getRGB(mouseX, mouseY)));
       if (image.getRGB(mouseX, mouseY) == 0xFFFFFFFF)
@@ -434,15 +534,10 @@ setCursor(blankCursor);
                mask = mask3;
                 if (Switches.bilinear && (Switches.monitormode == 0 || Switches.monitormode == 1)){
                     mask = mask1;
-                    g.setColor(SCAN);
-                    for (int i=0; i< imageRect.width; i=i+2)
-                        g.drawLine(imageRect.x+i, imageRect.y,
-                                imageRect.x+i, imageRect.height);
+                    g.drawImage(getScanOverlay(true, SCAN), imageRect.x, imageRect.y, null);
                 }
                 else
-                    for (int i=0; i< imageRect.height; i=i+2)
-                        g.drawLine(imageRect.x, imageRect.y+i,
-                                imageRect.width, imageRect.y+i);
+                    g.drawImage(getScanOverlay(false, Color.BLACK), imageRect.x, imageRect.y, null);
            }
        }
        
@@ -503,10 +598,11 @@ setCursor(blankCursor);
               ytext = ytext - 1;
       }
               	      
-	    if (showfps >= 1 || (showfps <=-1 && debug))
+	    if (showfps >= 1 || (showfps <=-1 && debug) || Switches.warp)
              {
                         g.setFont(displayFont);
-            String cpu = "CPU:" + Switches.turbo*100+"%";
+            String cpu = Switches.warp ? "WARP:" + Math.round(warpMHz * 10) / 10.0 + "MHz" :
+                "CPU:" + Switches.turbo*100+"%";
 	        String fps = "FPS: " + mCurrFPS;
 	        g.setColor(ALERT);
 	        g.drawString(fps, imageRect.width - 96, imageRect.height - 16);
@@ -763,9 +859,59 @@ setCursor(blankCursor);
 	   }
 
            if (showeffect)
-               g.drawImage(mask, imageRect.x, imageRect.y, imageRect.width, imageRect.height, this);
+               drawMask(g);
            if (masked)
-               g.drawImage(mask, imageRect.x, imageRect.y, imageRect.width, imageRect.height, this);
+               drawMask(g);
+  }
+
+  /**
+   * Returns the scan lines for the current image size as one image, rebuilt only
+   * when the size, direction or colour changes.
+   */
+  protected BufferedImage getScanOverlay(boolean vertical, Color color) {
+    int width = imageRect.width, height = imageRect.height;
+    if (scanOverlay == null || scanOverlay.getWidth() != width || scanOverlay.getHeight() != height ||
+      scanVertical != vertical || !color.equals(scanColor)) {
+      scanOverlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      Graphics g = scanOverlay.createGraphics();
+      g.setColor(color);
+      if (vertical)
+        for (int i = 0; i < width; i += 2)
+          g.drawLine(i, 0, i, height - 1);
+      else
+        for (int i = 0; i < height; i += 2)
+          g.drawLine(0, i, width - 1, i);
+      g.dispose();
+      scanVertical = vertical;
+      scanColor = color;
+    }
+    return scanOverlay;
+  }
+
+  /**
+   * Draws the scan effect mask, scaled once to the image size and cached. While
+   * the mask image is still loading it is drawn scaled as before.
+   */
+  protected void drawMask(Graphics g) {
+    int width = imageRect.width, height = imageRect.height;
+    if (maskOverlay == null || maskSource != mask || maskOverlay.getWidth() != width ||
+      maskOverlay.getHeight() != height || maskBilinear != Switches.bilinear) {
+      BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g2 = scaled.createGraphics();
+      if (Switches.bilinear)
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      boolean loaded = g2.drawImage(mask, 0, 0, width, height, this);
+      g2.dispose();
+      if (!loaded) {
+        g.drawImage(mask, imageRect.x, imageRect.y, width, height, this);
+        return;
+      }
+      maskOverlay = scaled;
+      maskSource = mask;
+      maskBilinear = Switches.bilinear;
+    }
+    g.drawImage(maskOverlay, imageRect.x, imageRect.y, null);
   }
 
   public void doTouchFPS() {
@@ -805,6 +951,10 @@ setCursor(blankCursor);
   @Override
   public void paintComponent(Graphics g) {
     if (image != null){
+        if ((readyFrame.get() & FRESH_FRAME) != 0) {
+            frontFrame = readyFrame.getAndSet(frontFrame) & 0x03;
+            image = frames[frontFrame];
+        }
         paintImage(g);
     }
     painted = true;
@@ -852,18 +1002,10 @@ setCursor(blankCursor);
            if (Switches.bilinear)
                drawlines=true;
            if (drawlines){
-                if (Switches.bilinear && (Switches.monitormode == 0 || Switches.monitormode == 1)){
-                    g.setColor(SCAN);
-                    for (int i=0; i< imageRect.width; i=i+2)
-                        g.drawLine(imageRect.x+i, imageRect.y,
-                                imageRect.x+i, imageRect.height);
-                }
-                else{
-
-                    g.setColor(Color.BLACK);
-                    for (int i=0; i< imageRect.height; i=i+2)
-                        g.drawLine(imageRect.x, imageRect.y+i,
-                                imageRect.width, imageRect.y+i);}
+                if (Switches.bilinear && (Switches.monitormode == 0 || Switches.monitormode == 1))
+                    g.drawImage(getScanOverlay(true, SCAN), imageRect.x, imageRect.y, null);
+                else
+                    g.drawImage(getScanOverlay(false, Color.BLACK), imageRect.x, imageRect.y, null);
            }
        }
            }}
@@ -930,9 +1072,9 @@ setCursor(blankCursor);
        }
 
      if (showeffect)
-               g.drawImage(mask, imageRect.x, imageRect.y, imageRect.width, imageRect.height, this);
+               drawMask(g);
            if (masked)
-               g.drawImage(mask, imageRect.x, imageRect.y, imageRect.width, imageRect.height, this);
+               drawMask(g);
       return off_Image;
   }
   public static void setFade(int fade){
@@ -962,6 +1104,21 @@ setCursor(blankCursor);
     return imageHeight;
   }
 
+  /**
+   * Returns how often each image pixel is repeated horizontally and vertically at
+   * the normal (not double or triple) size.
+   */
+  public Dimension getImageScale() {
+    return new Dimension(Math.max(1,scaleW / imageWidth),Math.max(1,scaleH / imageHeight));
+  }
+
+  /**
+   * Sets the capture fed with the pixels of every frame, or null to stop.
+   */
+  public void setCapture(jemu.ui.gfx.FrameCapture value) {
+    capture = value;
+  }
+
   public boolean isPainted() {
     return painted;
   }
@@ -13,7 +13,7 @@
  */
 
 package jemu.ui;
-import jemu.ui.gfx.AnimatedGifEncoder;
+import jemu.ui.gfx.FrameCapture;
 import jemu.system.cpc.RomSetter;
 import jemu.system.cpc.CPCPrinter;
 import java.net.*;
@@ -36,6 +36,7 @@ import jemu.settings.Settings;
 
 import jemu.util.hexeditor.*;
 import jemu.core.device.sound.YMControl;
+import jemu.core.device.sound.JavaSound;
 
 import java.awt.dnd.DnDConstants;
 import java.awt.dnd.DropTarget;
@@ -69,7 +70,7 @@ public class JEMU extends Applet implements   KeyListener, MouseListener, ItemLi
     protected int flasher;
     protected String captureName="output.gif";
     protected boolean doRec, startR, doingRec, initRec;
-    protected AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+    protected FrameCapture capture;
     protected String titleA, keepA,titleB, keepB,titleC, keepC,titleD, keepD,titleE, keepE,titleF, keepF;
 
     protected JButton KeepA, KeepB, KeepC, KeepD, KeepE, KeepF;
@@ -356,6 +357,12 @@ public void init() {
       if (!Switches.khz44 && !Switches.khz11)
           recrateB.setState(true);
 
+      Switches.audio16 = Settings.getBoolean(Settings.AUDIO16, Switches.audio16);
+      Switches.audioLatency = JavaSound.parseLatency(Settings.get(Settings.AUDIOLATENCY, "" + Switches.audioLatency),
+          Switches.audioLatency);
+      if (Settings.get(Settings.AUDIORATE, "44100").startsWith("48"))
+          JavaSound.SAMPLE_RATE = 48000;
+
 
       Switches.doIntack = Settings.getBoolean(Settings.INTACK, true);
       intack.setState(Switches.doIntack);
@@ -804,6 +811,12 @@ public void init() {
       Switches.floppyturbo = Settings.getBoolean(Settings.FLOPPYTURBO, false);
       Switches.floppyturbo = Util.getBoolean(getParameter("FLOPPYTURBO", Boolean.toString(Switches.floppyturbo)));
       floppyturbo.setState(Switches.floppyturbo);
+      Switches.tapefastload = Settings.getBoolean(Settings.TAPEFASTLOAD, false);
+      Switches.tapefastload = Util.getBoolean(getParameter("TAPEFASTLOAD", Boolean.toString(Switches.tapefastload)));
+      tapefastload.setState(Switches.tapefastload);
+      Switches.fastfdc = Settings.getBoolean(Settings.FASTFDC, false);
+      Switches.fastfdc = Util.getBoolean(getParameter("FASTFDC", Boolean.toString(Switches.fastfdc)));
+      fastfdc.setState(Switches.fastfdc);
 
            unprotect.setState(Switches.unprotect);
            Printer.setState(Switches.Printer);
@@ -1884,6 +1897,12 @@ protected String fileName;
       }
 
       if (e.getKeyCode() == KeyEvent.VK_F5) {
+          if (ctrl && shift){
+              ctrl = false;
+              shift = false;
+              setWarp(!Switches.warp);
+              return;
+          } else
           if (ctrl && !shift){
               if (!jemu.system.cpc.CPC.tapedeck){
               jemu.system.cpc.CPC.TapeDrive.setVisible(true);
@@ -2531,6 +2550,17 @@ catch (Exception p){}
     computer.reSync();
   }
 
+  public void setWarp(final boolean value){
+      checkWarp.setState(value);
+      computer.setWarp(value);
+      if (value)
+          Display.automessage = "JavaCPC is running in warp mode!";
+      else
+          Display.automessage = "JavaCPC is running at " + Switches.turbo*100 + "% CPU-Speed.";
+      Display.showauto = 150;
+      this.display.requestFocus();
+  }
+
   public void setFloppy(final boolean value){
       floppyoutput = value;
       if (floppyoutput)
@@ -2947,14 +2977,14 @@ catch (Exception p){}
        }
        else
        if (menuAdd.equals(showCap)){
-           FileDialog filedia = new FileDialog((Frame) frame, "Save Animated Gif...", FileDialog.SAVE);
+           FileDialog filedia = new FileDialog((Frame) frame, "Save Animated Gif (or PNG sequence)...", FileDialog.SAVE);
         filedia.setFile("*.gif");
         filedia.setVisible(true);
         String filename = filedia.getFile();
         if (filename != null) {
            filename =  filedia.getDirectory() + filedia.getFile();
             String savename=filename;
-            if (!savename.toLowerCase().endsWith(".gif"))
+            if (!savename.toLowerCase().endsWith(".gif") && !savename.toLowerCase().endsWith(".png"))
                         savename=savename + ".gif";
             captureName = savename;
            initRec = true;
@@ -3506,6 +3536,11 @@ catch (Exception p){}
           setTurbo(checkTurbo.getState());
       }
       else
+      if (e.getSource() == checkWarp){
+          System.out.println("Warp is set " + checkWarp.getState());
+          setWarp(checkWarp.getState());
+      }
+      else
       if (e.getSource() == shouldBoot){
           jemu.system.cpc.CPC.shouldBoot = shouldBoot.getState();
       }
@@ -3904,6 +3939,16 @@ catch (Exception p){}
             Settings.setBoolean(Settings.FLOPPYTURBO, floppyturbo.getState());
            checkTurbo.setState(false);
        }
+       else
+       if (e.getSource() == tapefastload){
+           Switches.tapefastload = tapefastload.getState();
+           Settings.setBoolean(Settings.TAPEFASTLOAD, tapefastload.getState());
+       }
+       else
+       if (e.getSource() == fastfdc){
+           Switches.fastfdc = fastfdc.getState();
+           Settings.setBoolean(Settings.FASTFDC, fastfdc.getState());
+       }
 
      /* else {
      if (hideframe == true)  {
@@ -3975,6 +4020,7 @@ catch (Exception p){}
           //DiscImage imager = diskdrive.getDisc(this.driveHead.getSelectedIndex());
           DiscImage imager = diskdrive.getDisc(FDC.getForcedHead(computer.getCurrentDrive()));
           imager.saveImage(savefile);
+          jemu.system.cpc.CPCDiscImage.waitForSaves();
           String insertdisk = savename;
           loadFile(Computer.TYPE_SNAPSHOT, insertdisk, false);
           System.out.println("loaded " + insertdisk);
@@ -4315,6 +4361,7 @@ protected void processWindowEvent(WindowEvent we) {
      CheckboxMenuItem autocheck = new CheckboxMenuItem("Automatically check for updates");
 
      CheckboxMenuItem checkTurbo =  new CheckboxMenuItem("Turbo");
+     CheckboxMenuItem checkWarp =   new CheckboxMenuItem("Warp (Ctrl+Shift+F5)");
      CheckboxMenuItem checkColor =  new CheckboxMenuItem("CTM644/CM14 - Colour monitor");
      CheckboxMenuItem checkJColor = new CheckboxMenuItem("CTM644/CM14 - 2nd Colorset");
      CheckboxMenuItem checkGreen =  new CheckboxMenuItem("GT65 - Green monitor");
@@ -4347,6 +4394,8 @@ protected void processWindowEvent(WindowEvent we) {
      CheckboxMenuItem aontop =      new CheckboxMenuItem("Always on top");
      CheckboxMenuItem drivesound =  new CheckboxMenuItem("Drive noises");
      CheckboxMenuItem floppyturbo = new CheckboxMenuItem("Drive turbo");
+     CheckboxMenuItem tapefastload = new CheckboxMenuItem("Tape fast load");
+     CheckboxMenuItem fastfdc = new CheckboxMenuItem("Fast FDC");
      CheckboxMenuItem unprotect =   new CheckboxMenuItem("Force no write protection");
      CheckboxMenuItem Printer=      new CheckboxMenuItem("Enable Printer");
      CheckboxMenuItem Expansion=    new CheckboxMenuItem("JavaCPC Expansion ROM");
@@ -4460,6 +4509,7 @@ protected void processWindowEvent(WindowEvent we) {
 
      menue2.addSeparator();
      menue2.add(checkTurbo);
+     menue2.add(checkWarp);
      menue2.add(intack);
      menue2.addSeparator();
      menue2.add(Expansion);
@@ -4470,6 +4520,8 @@ protected void processWindowEvent(WindowEvent we) {
      menue3.addSeparator();
         menue3.add(drivesound);
         menue3.add(floppyturbo);
+        menue3.add(tapefastload);
+        menue3.add(fastfdc);
         menue3.add(overrideP);
         menue3.add(showDrive);
         menue3.add(changePolarity);
@@ -4662,6 +4714,7 @@ protected void processWindowEvent(WindowEvent we) {
      recrateB.addItemListener(this);
      recrateC.addItemListener(this);
      checkTurbo.addItemListener(this);
+     checkWarp.addItemListener(this);
      checkColor.addItemListener(this);
      checkGreen.addItemListener(this);
      checkGrey.addItemListener(this);
@@ -4698,6 +4751,8 @@ protected void processWindowEvent(WindowEvent we) {
      Expansion.addItemListener(this);
      Digiblaster.addItemListener(this);
      floppyturbo.addItemListener(this);
+     tapefastload.addItemListener(this);
+     fastfdc.addItemListener(this);
 
   }
  public void OnlineMenu(){
@@ -4890,6 +4945,7 @@ protected void processWindowEvent(WindowEvent we) {
         if (e.getID() == WindowEvent.WINDOW_CLOSING) {
          screenpreview.dispose();
                   initRec = false;
+                  finishCapture();
         }
       }
 
@@ -4935,6 +4991,20 @@ if (!screenpreview.isVisible())
 
   }
 
+  /**
+   * Stops feeding frames to the capture; the worker writes what is queued and
+   * closes the file.
+   */
+  protected void finishCapture(){
+      if (capture != null){
+          display.setCapture(null);
+          capture.finish();
+          capture = null;
+      }
+      doingRec = false;
+      doRec = false;
+  }
+
   protected void screenControl(){
       if (screenpreview == null){
       screenpreview = new JFrame(){
@@ -4944,6 +5014,7 @@ if (!screenpreview.isVisible())
         if (e.getID() == WindowEvent.WINDOW_CLOSING) {
          screenpreview.dispose();
                   initRec = false;
+                  finishCapture();
         }
       }
 
@@ -4980,16 +5051,23 @@ if (!screenpreview.isVisible())
       if (doRec){
           if (!doingRec){
               doingRec = true;
-              encoder.start(captureName);
-              encoder.setDelay(200);
-              encoder.setRepeat(0);
-             // encoder.setTransparent(Color.BLACK);
+              // Every 10th frame at 50Hz, 200ms per GIF frame
+              Dimension scale = display.getImageScale();
+              capture = new FrameCapture(captureName, display.getImageWidth(), display.getImageHeight(),
+                      scale.width, scale.height, 10);
+              capture.setPalette(GateArray.getPalette());
+              try {
+                  capture.start();
+                  display.setCapture(capture);
+              } catch (IOException e) {
+                  System.out.println(e.getMessage());
+              }
               System.out.println("recording started...");
               flasher = 0;
           }
           if (startR){
+              capture.setPaused(pauserec);
               if (!pauserec){
-                  encoder.addFrame(images);
                   flasher++;
                   if (flasher == 4)
                       startRec.setBackground(Color.GREEN);
@@ -5009,9 +5087,7 @@ if (!screenpreview.isVisible())
               }
           } else{
               if (doingRec){
-                  encoder.finish();
-                  doingRec = false;
-                  doRec = false;
+                  finishCapture();
                   initRec = false;
                   screenpreview.dispose();
               System.out.println("recording finished...");
@@ -36,6 +36,8 @@ public class Switches {
     public static String choosenname="";
     public static boolean saveauto, neverOverwrite, checksave = false;
     public static boolean floppyturbo = false;
+    public static boolean tapefastload = false;
+    public static boolean fastfdc = false;
     public static int getfromautotype = 0;
     public static boolean autofire = false;
     public static String ROM="";
@@ -123,6 +125,10 @@ public class Switches {
         public static int     booter            = 0;
         public static int     top               = 0;
         public static int     turbo             = 1;
+        public static boolean warp              = false;
+        public static int     warpFrames        = 10;
+        public static int     audioLatency      = 100;   // ms queued ahead of the sound card
+        public static boolean audio16           = true;  // 16 bit PSG output
         public static boolean osddisplay        = true;
         public static boolean autosave          = true;
         public static boolean autoboot          = true;
@@ -47,6 +47,12 @@ public class AnimatedGifEncoder {
 	protected boolean firstFrame = true;
 	protected boolean sizeSet = false; // if false, get size from first frame
 	protected int sample = 10; // default sample interval for quantizer
+	protected boolean optimize = true; // write only what changed since the last frame
+	protected int[] previous; // RGB of the frame as shown so far
+	protected byte[] framePixels; // indexed pixels of the rectangle written
+	protected int frameX, frameY, frameW, frameH; // rectangle written for this frame
+	protected boolean frameTransparent; // unchanged pixels use transIndex
+	protected ExactPalette exact = new ExactPalette(); // exact color lookup
 
 	/**
 	 * Sets the delay time between each frame, or changes it
@@ -85,6 +91,17 @@ public class AnimatedGifEncoder {
 		}
 	}
 	
+	/**
+	 * Sets whether frames after the first only contain the rectangle
+	 * that changed, with unchanged pixels in it transparent.  Default
+	 * is true.  Not used while a transparent color is set.
+	 *
+	 * @param value true to optimize frames.
+	 */
+	public void setOptimize(boolean value) {
+		optimize = value;
+	}
+
 	/**
 	 * Sets the transparent color for the last added frame
 	 * and any subsequent frames.
@@ -123,27 +140,75 @@ public class AnimatedGifEncoder {
 			image = im;
 			getImagePixels(); // convert to correct format if necessary
 			analyzePixels(); // build color table & map pixels
-			if (firstFrame) {
-				writeLSD(); // logical screen descriptior
-				writePalette(); // global color table
-				if (repeat >= 0) {
-					// use NS app extension to indicate reps
-					writeNetscapeExt();
+			writeFrame();
+		} catch (IOException e) {
+			ok = false;
+		}
+
+		return ok;
+	}
+
+	/**
+	 * Adds next GIF frame already mapped to a color table, so no
+	 * quantization is needed.  Used for emulator frames, which only
+	 * have the colors of the emulated hardware.
+	 *
+	 * @param indexed one palette index per pixel, width * height.
+	 * @param palette RGB color table, up to 256 entries.
+	 * @return true if successful.
+	 */
+	public boolean addFrame(byte[] indexed, byte[] palette) {
+		if ((indexed == null) || !started || !sizeSet) {
+			return false;
+		}
+		boolean ok = true;
+		try {
+			indexedPixels = indexed;
+			colorTab = palette;
+			colorDepth = 8;
+			palSize = 7;
+			if (transparent != null) {
+				for (int i = 0; i < 256; i++) {
+					usedEntry[i] = i * 3 < colorTab.length;
 				}
+				transIndex = findClosest(transparent);
 			}
-			writeGraphicCtrlExt(); // write graphic control extension
-			writeImageDesc(); // image descriptor
-			if (!firstFrame) {
-				writePalette(); // local color table
-			}
-			writePixels(); // encode and write pixel data
-			firstFrame = false;
+			writeFrame();
 		} catch (IOException e) {
 			ok = false;
 		}
 
 		return ok;
 	}
+
+	/**
+	 * Writes the frame in indexedPixels with colorTab.
+	 */
+	protected void writeFrame() throws IOException {
+		framePixels = indexedPixels;
+		frameX = frameY = 0;
+		frameW = width;
+		frameH = height;
+		frameTransparent = false;
+		if (optimize && (transparent == null)) {
+			diffFrame();
+		}
+		if (firstFrame) {
+			writeLSD(); // logical screen descriptior
+			writePalette(); // global color table
+			if (repeat >= 0) {
+				// use NS app extension to indicate reps
+				writeNetscapeExt();
+			}
+		}
+		writeGraphicCtrlExt(); // write graphic control extension
+		writeImageDesc(); // image descriptor
+		if (!firstFrame) {
+			writePalette(); // local color table
+		}
+		writePixels(); // encode and write pixel data
+		firstFrame = false;
+	}
 	
 	/**
 	 * Flushes any pending data and closes output file.
@@ -170,6 +235,8 @@ public class AnimatedGifEncoder {
 		image = null;
 		pixels = null;
 		indexedPixels = null;
+		framePixels = null;
+		previous = null;
 		colorTab = null;
 		closeStream = false;
 		firstFrame = true;
@@ -267,6 +334,9 @@ public class AnimatedGifEncoder {
 		int len = pixels.length;
 		int nPix = len / 3;
 		indexedPixels = new byte[nPix];
+		if (analyzeExact()) {
+			return;
+		}
 		NeuQuant nq = new NeuQuant(pixels, len, sample);
 		// initialize quantizer
 		colorTab = nq.process(); // create reduced palette
@@ -296,6 +366,98 @@ public class AnimatedGifEncoder {
 		}
 	}
 	
+	/**
+	 * Maps the pixels to an exact color table if the frame has no more
+	 * than 256 colors, as is the case for emulator screens.
+	 *
+	 * @return false if there are too many colors for an exact table.
+	 */
+	protected boolean analyzeExact() {
+		exact.clear();
+		for (int i = 0, k = 0; k < pixels.length; i++) {
+			int b = pixels[k++] & 0xff;
+			int g = pixels[k++] & 0xff;
+			int r = pixels[k++] & 0xff;
+			int index = exact.getIndex((r << 16) | (g << 8) | b, false);
+			if (index < 0) {
+				return false;
+			}
+			indexedPixels[i] = (byte) index;
+		}
+		colorTab = exact.getTable();
+		int colors = exact.getColourCount();
+		for (int i = 0; i < 256; i++) {
+			usedEntry[i] = i < colors;
+		}
+		pixels = null;
+		colorDepth = 8;
+		palSize = 7;
+		if (transparent != null) {
+			transIndex = findClosest(transparent);
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the frame with the one shown so far and sets framePixels
+	 * to the rectangle that changed.  Unchanged pixels inside it become
+	 * transparent if the color table has a free entry.
+	 */
+	protected void diffFrame() {
+		int n = width * height;
+		int colors = colorTab.length / 3;
+		int[] rgb = new int[256];
+		for (int i = 0; i < colors; i++) {
+			rgb[i] = ((colorTab[i * 3] & 0xff) << 16)
+				| ((colorTab[i * 3 + 1] & 0xff) << 8) | (colorTab[i * 3 + 2] & 0xff);
+		}
+		if (firstFrame || (previous == null) || (previous.length != n)) {
+			previous = new int[n];
+			for (int i = 0; i < n; i++) {
+				previous[i] = rgb[indexedPixels[i] & 0xff];
+			}
+			return;
+		}
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				if (rgb[indexedPixels[i] & 0xff] != previous[i]) {
+					if (x < minX) minX = x;
+					if (x > maxX) maxX = x;
+					if (minY > y) minY = y;
+					maxY = y;
+				}
+			}
+		}
+		int trans = -1;
+		if (colors < 256) {
+			// Add a color for unchanged pixels
+			trans = colors;
+			byte[] table = new byte[colorTab.length + 3];
+			System.arraycopy(colorTab, 0, table, 0, colorTab.length);
+			colorTab = table;
+			transIndex = trans;
+			frameTransparent = true;
+		}
+		if (maxX < 0) {
+			// Nothing changed, one pixel keeps the frame timing
+			minX = maxX = minY = maxY = 0;
+		}
+		frameX = minX;
+		frameY = minY;
+		frameW = maxX - minX + 1;
+		frameH = maxY - minY + 1;
+		framePixels = new byte[frameW * frameH];
+		for (int y = minY, k = 0; y <= maxY; y++) {
+			for (int i = y * width + minX, end = i + frameW; i < end; i++) {
+				byte index = indexedPixels[i];
+				int c = rgb[index & 0xff];
+				framePixels[k++] = (trans >= 0 && c == previous[i]) ? (byte) trans : index;
+				previous[i] = c;
+			}
+		}
+	}
+
 	/**
 	 * Returns index of palette color closest to c
 	 *
@@ -351,7 +513,10 @@ public class AnimatedGifEncoder {
 		out.write(0xf9); // GCE label
 		out.write(4); // data block size
 		int transp, disp;
-		if (transparent == null) {
+		if (frameTransparent) {
+			transp = 1;
+			disp = 1; // keep the frame below for unchanged pixels
+		} else if (transparent == null) {
 			transp = 0;
 			disp = 0; // dispose = no action
 		} else {
@@ -379,10 +544,10 @@ public class AnimatedGifEncoder {
 	 */
 	protected void writeImageDesc() throws IOException {
 		out.write(0x2c); // image separator
-		writeShort(0); // image position x,y = 0,0
-		writeShort(0);
-		writeShort(width); // image size
-		writeShort(height);
+		writeShort(frameX); // image position
+		writeShort(frameY);
+		writeShort(frameW); // image size
+		writeShort(frameH);
 		// packed fields
 		if (firstFrame) {
 			// no LCT  - GCT is used for first (or only) frame
@@ -445,7 +610,7 @@ public class AnimatedGifEncoder {
 	 */
 	protected void writePixels() throws IOException {
 		LZWEncoder encoder =
-			new LZWEncoder(width, height, indexedPixels, colorDepth);
+			new LZWEncoder(frameW, frameH, framePixels, colorDepth);
 		encoder.encode(out);
 	}
 	
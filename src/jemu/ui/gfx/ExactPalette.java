@@ -0,0 +1,98 @@
+package jemu.ui.gfx;
+
+/**
+ * Title:        JavaCPC
+ * Description:  A palette of up to 256 exact RGB colours for indexed images.
+ *
+ * Colours are looked up through an open addressing hash of 1024 slots, so mapping
+ * a pixel costs a multiply and usually a single compare. Emulator frames only hold
+ * the colours of the emulated hardware, which fit without quantization.
+ *
+ * @author
+ */
+
+public class ExactPalette {
+
+  public static final int SIZE = 256;
+
+  protected static final int SLOTS = 1024;
+  protected static final int MAX_KEYS = 768;        // Keeps the probe chains short
+
+  protected int[] keys = new int[SLOTS];            // RGB | 0x1000000, 0 if unused
+  protected byte[] values = new byte[SLOTS];
+  protected int[] colours = new int[SIZE];
+  protected int colourCount = 0;
+  protected int keyCount = 0;
+
+  /**
+   * Empties the palette.
+   */
+  public void clear() {
+    java.util.Arrays.fill(keys, 0);
+    colourCount = keyCount = 0;
+  }
+
+  /**
+   * Returns the palette index of an RGB colour, adding it to the palette when new.
+   *
+   * @param rgb colour as 0xRRGGBB
+   * @param nearest when the palette is full, use the nearest colour instead
+   * @return the index, or -1 if the palette is full and nearest is false
+   */
+  public int getIndex(int rgb, boolean nearest) {
+    int key = rgb | 0x1000000;
+    int slot = (rgb * 0x9e3779b1) >>> 22;
+    while (keys[slot] != 0) {
+      if (keys[slot] == key)
+        return values[slot] & 0xff;
+      slot = (slot + 1) & (SLOTS - 1);
+    }
+    int index;
+    if (colourCount < SIZE)
+      colours[index = colourCount++] = rgb;
+    else if (nearest)
+      index = getNearest(rgb);
+    else
+      return -1;
+    if (keyCount < MAX_KEYS) {
+      keys[slot] = key;
+      values[slot] = (byte)index;
+      keyCount++;
+    }
+    return index;
+  }
+
+  protected int getNearest(int rgb) {
+    int best = 0, min = Integer.MAX_VALUE;
+    for (int i = 0; i < colourCount; i++) {
+      int r = ((rgb >> 16) & 0xff) - ((colours[i] >> 16) & 0xff);
+      int g = ((rgb >> 8) & 0xff) - ((colours[i] >> 8) & 0xff);
+      int b = (rgb & 0xff) - (colours[i] & 0xff);
+      int d = r * r + g * g + b * b;
+      if (d < min) {
+        min = d;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  public int getColourCount() {
+    return colourCount;
+  }
+
+  /**
+   * Returns the colours as R, G, B bytes, as GIF colour tables and IndexColorModel
+   * take them.
+   */
+  public byte[] getTable() {
+    byte[] table = new byte[colourCount * 3];
+    for (int i = 0, j = 0; i < colourCount; i++) {
+      table[j++] = (byte)(colours[i] >> 16);
+      table[j++] = (byte)(colours[i] >> 8);
+      table[j++] = (byte)colours[i];
+    }
+    return table;
+  }
+
+}
@@ -0,0 +1,183 @@
+package jemu.ui.gfx;
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import javax.imageio.ImageIO;
+
+/**
+ * Title:        JavaCPC
+ * Description:  Records the emulator display as an animated GIF or a PNG sequence.
+ *
+ * The emulation thread copies every interval-th frame of the display pixels into a
+ * free buffer and queues it; a worker thread maps the pixels to palette indices and
+ * encodes them. Emulator frames only hold the colours of the emulated hardware, so
+ * the palette is exact and no colour quantization is done. If the worker falls so far
+ * behind that no buffer is free, the frame is dropped rather than stalling emulation.
+ *
+ * @author
+ */
+
+public class FrameCapture implements Runnable {
+
+  public static final int GIF = 0;
+  public static final int PNG = 1;
+
+  protected static final int BUFFERS = 16;          // Frames queued at most
+  protected static final int[] END = new int[0];    // Queued by finish()
+
+  protected ArrayBlockingQueue<int[]> free = new ArrayBlockingQueue<int[]>(BUFFERS);
+  protected ArrayBlockingQueue<int[]> frames = new ArrayBlockingQueue<int[]>(BUFFERS + 1);
+  protected String name;
+  protected int format;
+  protected int width, height;                      // Size of the display pixels
+  protected int scaleX, scaleY;                     // Pixel repeat in the output
+  protected int interval;                           // Display frames per captured frame
+  protected int count = 0;
+  protected volatile boolean paused = false;
+  protected volatile int dropped = 0;
+  protected Thread thread;
+
+  // Exact palette, filled from setPalette() and by colours as they appear
+  protected ExactPalette palette = new ExactPalette();
+
+  protected AnimatedGifEncoder encoder;
+  protected byte[] indexed;
+  protected int frameNumber = 0;
+
+  /**
+   * Creates a capture, call start() to begin.
+   *
+   * @param name GIF file name, or the name PNG frames are numbered after
+   * @param width width of the display pixels
+   * @param height height of the display pixels
+   * @param scaleX horizontal pixel repeat
+   * @param scaleY vertical pixel repeat
+   * @param interval display frames per captured frame, at 50Hz
+   */
+  public FrameCapture(String name, int width, int height, int scaleX, int scaleY, int interval) {
+    this.name = name;
+    this.width = width;
+    this.height = height;
+    this.scaleX = Math.max(1, scaleX);
+    this.scaleY = Math.max(1, scaleY);
+    this.interval = Math.max(1, interval);
+    format = name.toLowerCase().endsWith(".png") ? PNG : GIF;
+    for (int i = 0; i < BUFFERS; i++)
+      free.add(new int[width * height]);
+    indexed = new byte[width * this.scaleX * height * this.scaleY];
+  }
+
+  /**
+   * Adds colours to the palette before the first frame, so the GIF palette starts
+   * with the hardware colours in a fixed order.
+   *
+   * @param rgb colours as 0xRRGGBB
+   */
+  public void setPalette(int[] rgb) {
+    for (int i = 0; i < rgb.length; i++)
+      palette.getIndex(rgb[i], true);
+  }
+
+  public void start() throws IOException {
+    if (format == GIF) {
+      encoder = new AnimatedGifEncoder();
+      if (!encoder.start(name))
+        throw new IOException("Cannot write " + name);
+      encoder.setSize(width * scaleX, height * scaleY);
+      encoder.setDelay(interval * 20);
+      encoder.setRepeat(0);
+    }
+    thread = new Thread(this, "Frame capture");
+    thread.start();
+  }
+
+  public void setPaused(boolean value) {
+    paused = value;
+  }
+
+  public int getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Called by the display for every frame. Copies the pixels if this frame is
+   * captured and returns without waiting for the encoder.
+   */
+  public void addFrame(int[] pixels) {
+    if (paused || ++count < interval)
+      return;
+    count = 0;
+    int[] buffer = free.poll();
+    if (buffer == null)
+      dropped++;
+    else {
+      System.arraycopy(pixels, 0, buffer, 0, buffer.length);
+      frames.add(buffer);
+    }
+  }
+
+  /**
+   * Ends the capture. Frames already queued are still written, the file is closed
+   * by the worker when it is done.
+   */
+  public void finish() {
+    if (!frames.contains(END))
+      frames.add(END);
+  }
+
+  /**
+   * Waits until the worker has written all frames queued before finish().
+   */
+  public void waitFinished() throws InterruptedException {
+    if (thread != null)
+      thread.join();
+  }
+
+  public void run() {
+    try {
+      for (int[] frame = frames.take(); frame != END; frame = frames.take()) {
+        writeFrame(frame);
+        free.add(frame);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    if (encoder != null)
+      encoder.finish();
+    System.out.println("Capture finished: " + frameNumber + " frames, " + dropped + " dropped");
+  }
+
+  protected void writeFrame(int[] frame) throws IOException {
+    int p = 0;
+    for (int y = 0; y < height; y++) {
+      int start = p;
+      for (int x = y * width, end = x + width; x < end; x++) {
+        // beyond 256 colours the nearest colour is used
+        byte index = (byte)palette.getIndex(frame[x] & 0xffffff, true);
+        for (int i = 0; i < scaleX; i++)
+          indexed[p++] = index;
+      }
+      for (int i = 1; i < scaleY; i++, p += width * scaleX)
+        System.arraycopy(indexed, start, indexed, p, width * scaleX);
+    }
+    byte[] table = palette.getTable();
+    if (format == GIF)
+      encoder.addFrame(indexed, table);
+    else
+      writePNG(table);
+    frameNumber++;
+  }
+
+  protected void writePNG(byte[] table) throws IOException {
+    IndexColorModel model = new IndexColorModel(8, palette.getColourCount(), table, 0, false);
+    int w = width * scaleX, h = height * scaleY;
+    WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(indexed, indexed.length),
+      w, h, w, 1, new int[] { 0 }, null);
+    String base = name.substring(0, name.length() - 4);
+    String number = "0000" + frameNumber;
+    ImageIO.write(new BufferedImage(model, raster, false, null), "png",
+      new File(base + "-" + number.substring(number.length() - 5) + ".png"));
+  }
+
+}
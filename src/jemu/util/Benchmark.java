@@ -0,0 +1,168 @@
+package jemu.util;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Title:        JEMU
+ * Description:  Minimal micro benchmark harness. A Benchmark performs a number of
+ *               operations per call to run(), is warmed up and then measured over
+ *               several iterations. Results are reported in ns/op and bytes
+ *               allocated/op, and can be saved and compared against a baseline.
+ * Copyright:    Copyright (c) 2002
+ * Company:
+ * @author
+ * @version 1.0
+ */
+
+public abstract class Benchmark {
+
+  public static int WARMUP_ITERATIONS  = 5;
+  public static int MEASURE_ITERATIONS = 10;
+  public static long ITERATION_TIME    = 500;   // Minimum ms per iteration
+
+  protected String name;
+
+  // Result of last measure()
+  protected double nsPerOp;
+  protected double bytesPerOp;
+
+  public Benchmark(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Prepares the benchmark. Called once before warming up.
+   */
+  public void setUp() throws Exception { }
+
+  /**
+   * Performs the given number of operations.
+   */
+  public abstract void run(int ops) throws Exception;
+
+  public double getNsPerOp() {
+    return nsPerOp;
+  }
+
+  public double getBytesPerOp() {
+    return bytesPerOp;
+  }
+
+  public void measure() throws Exception {
+    setUp();
+    // Find a batch size that takes about 1/10 of an iteration
+    int ops = 1;
+    long time;
+    do {
+      long start = System.nanoTime();
+      run(ops);
+      time = System.nanoTime() - start;
+      if (time < ITERATION_TIME * 100000L)
+        ops *= 2;
+    } while (time < ITERATION_TIME * 100000L && ops < (1 << 30));
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      iteration(ops);
+    double best = Double.MAX_VALUE;
+    double bytes = 0;
+    for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+      long[] result = iteration(ops);
+      best = Math.min(best, (double)result[0] / result[1]);
+      bytes += (double)result[2] / result[1];
+    }
+    nsPerOp = best;
+    bytesPerOp = bytes < 0 ? -1 : bytes / MEASURE_ITERATIONS;
+  }
+
+  // Returns { time in ns, operations, bytes allocated }
+  protected long[] iteration(int ops) throws Exception {
+    long count = 0;
+    long allocated = getAllocatedBytes();
+    long start = System.nanoTime();
+    long end = start + ITERATION_TIME * 1000000L;
+    long time;
+    do {
+      run(ops);
+      count += ops;
+    } while ((time = System.nanoTime()) < end);
+    long bytes = allocated < 0 ? -1 : getAllocatedBytes() - allocated;
+    return new long[] { time - start, count, bytes };
+  }
+
+  protected static long getAllocatedBytes() {
+    try {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(
+        Thread.currentThread().getId());
+    } catch (Throwable t) {
+      return -1;
+    }
+  }
+
+  /**
+   * Measures all benchmarks whose name starts with filter (or all for null), prints
+   * the results and compares them with the baseline file if it exists.
+   *
+   * @param benchmarks Benchmarks to run
+   * @param filter Name prefix, or null
+   * @param baseline Properties file to compare with, or null
+   * @param save File to save the results to, or null
+   */
+  public static void runAll(Benchmark[] benchmarks, String filter, String baseline,
+    String save) throws Exception
+  {
+    Properties base = new Properties();
+    if (baseline != null) {
+      InputStream in = new FileInputStream(baseline);
+      try {
+        base.load(in);
+      } finally {
+        in.close();
+      }
+    }
+    Properties results = new Properties();
+    System.out.println(pad("Benchmark", 28) + pad("ns/op", 12) + pad("B/op", 12) +
+      (baseline == null ? "" : "vs. baseline"));
+    for (int i = 0; i < benchmarks.length; i++) {
+      Benchmark bench = benchmarks[i];
+      if (filter != null && !bench.name.startsWith(filter))
+        continue;
+      bench.measure();
+      results.setProperty(bench.name, Double.toString(bench.nsPerOp));
+      results.setProperty(bench.name + ".bytes", Double.toString(bench.bytesPerOp));
+      String line = pad(bench.name, 28) + pad(format(bench.nsPerOp), 12) +
+        pad(format(bench.bytesPerOp), 12);
+      String old = base.getProperty(bench.name);
+      if (old != null) {
+        double ratio = Double.parseDouble(old) / bench.nsPerOp;
+        line += format(ratio) + "x";
+      }
+      System.out.println(line);
+    }
+    if (save != null) {
+      OutputStream out = new FileOutputStream(save);
+      try {
+        results.store(out, "JEMU benchmark results (ns/op)");
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  protected static String format(double value) {
+    return Double.toString(Math.round(value * 100) / 100.0);
+  }
+
+  protected static String pad(String value, int length) {
+    StringBuffer buffer = new StringBuffer(value);
+    while (buffer.length() < length)
+      buffer.append(' ');
+    return buffer.toString();
+  }
+
+}